@@ -63,6 +63,33 @@ public final class MurmurHash3 {
     }
 
 
+    public static long hash64x64(final long data) {
+        return hash64x64(data, DEFAULT_SEED);
+    }
+
+    // equals to the first half of hash128xArray for the 8 little-endian bytes of data, but doesn't allocate
+    public static long hash64x64(final long data, final int seed) {
+        long h1 = seed & 0xffffffffL;
+        long h2 = h1;
+
+        long k1 = data * C1;
+        k1 = Long.rotateLeft(k1, R1);
+        k1 *= C2;
+        h1 ^= k1;
+
+        h1 ^= Long.BYTES;
+        h2 ^= Long.BYTES;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+
+        return h1 + h2;
+    }
+
+
     public static int hash32xArray(final byte[] data) {
         return hash32xArray(data, DEFAULT_SEED);
     }
@@ -120,10 +147,24 @@ public final class MurmurHash3 {
 
     public static long[] hash128xArray(final byte[] data, final int offset, final int length, final long seed) {
         // Use an unsigned 32-bit integer as the seed
-        return hash128x64Internal(data, offset, length, seed);
+        long[] hash = new long[2];
+        hash128x64Internal(data, offset, length, seed, hash);
+        return hash;
+    }
+
+
+    public static long hash64xArray(final byte[] data) {
+        return hash64xArray(data, 0, data.length, DEFAULT_SEED);
     }
 
-    private static long[] hash128x64Internal(final byte[] data, final int offset, final int length, final long seed) {
+    // equals to the first half of hash128xArray, but doesn't allocate
+    public static long hash64xArray(final byte[] data, final int offset, final int length, final long seed) {
+        return hash128x64Internal(data, offset, length, seed, null);
+    }
+
+    // returns the first half of the hash, both halves are stored to the output array if it is not null
+    private static long hash128x64Internal(final byte[] data, final int offset, final int length, final long seed,
+                                           final long[] output) {
         long h1 = seed;
         long h2 = seed;
         final int nblocks = length >> 4;
@@ -212,7 +253,11 @@ public final class MurmurHash3 {
         h1 += h2;
         h2 += h1;
 
-        return new long[]{h1, h2};
+        if (output != null) {
+            output[0] = h1;
+            output[1] = h2;
+        }
+        return h1;
     }
 
 
@@ -0,0 +1,105 @@
+package membership;
+
+import hash.MurmurHash3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static utils.IntegerUtils.nextPow2;
+
+// Age-partitioned Bloom filter for membership over a sliding time window: k + l slices of one shared long[] form a
+// ring, a key sets one bit in each of the k newest slices, and a key is reported if some k consecutive slices have its
+// bits. Every generationLength the oldest slice is zeroed and becomes the newest one, so a key added in a generation is
+// found through the next l generations and no longer once the first of its slices is recycled.
+// Slice i always uses bit h1 + i * h2 of the key, so bits do not move when the ring turns.
+// The false-positive rate depends on how many keys are added per generation, slices should be sized for that count.
+public class AgePartitionedBloomFilter {
+    private static final int MAX_SLICE_BITS = 1 << 30;
+    private static final long NO_GENERATION = Long.MIN_VALUE;
+    private final long[] words;
+    private final int k, slices, sliceShift, sliceMask;
+    private final long generationLength;
+    private int newest; // slice of the current generation
+    private long generation = NO_GENERATION;
+
+    // keys are found for at least ttl and at most about ttl + ttl / generations after they were added
+    public AgePartitionedBloomFilter(int sliceBits, int numberOfHashFunctions, int generations, long ttl) {
+        if (sliceBits <= 0) throw new IllegalArgumentException("Slice size must be positive");
+        if (sliceBits > MAX_SLICE_BITS) throw new IllegalArgumentException("Slice size too large");
+        if (numberOfHashFunctions < 1) throw new IllegalArgumentException("Hash functions must be positive");
+        if (generations < 1) throw new IllegalArgumentException("Generations must be positive");
+        if (ttl < generations) throw new IllegalArgumentException("Ttl must be at least one unit per generation");
+
+        int size = Math.max(nextPow2(sliceBits), Long.SIZE);
+        this.k = numberOfHashFunctions;
+        this.slices = numberOfHashFunctions + generations;
+        this.sliceShift = Integer.numberOfTrailingZeros(size);
+        this.sliceMask = size - 1;
+        if ((long) slices << (sliceShift - 6) > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Filter too large");
+        this.words = new long[slices << (sliceShift - 6)];
+        this.generationLength = (ttl + generations - 1) / generations;
+    }
+
+    public void add(String key, long now) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        advance(now);
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        for (int age = 0, slice = newest; age < k; age++, slice = previous(slice)) {
+            long bit = bit(slice, h1, h2);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean contains(String key, long now) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        advance(now);
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        // run of consecutive slices with the bit, from the newest to the oldest
+        int run = 0;
+        for (int age = 0, slice = newest; age < slices && slices - age + run >= k; age++, slice = previous(slice)) {
+            long bit = bit(slice, h1, h2);
+            if ((words[(int) (bit >>> 6)] & 1L << bit) == 0) run = 0;
+            else if (++run == k) return true;
+        }
+        return false;
+    }
+
+    public long generationLength() {
+        return generationLength;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+        generation = NO_GENERATION;
+    }
+
+    // recycles one slice per elapsed generation, time going backwards is treated as the current generation
+    private void advance(long now) {
+        long current = Math.floorDiv(now, generationLength);
+        if (generation == NO_GENERATION) generation = current;
+        if (current <= generation) return;
+        long elapsed = Math.min(current - generation, slices);
+        int sliceWords = 1 << (sliceShift - 6);
+        for (long i = 0; i < elapsed; i++) {
+            newest = newest + 1 == slices ? 0 : newest + 1;
+            Arrays.fill(words, newest * sliceWords, (newest + 1) * sliceWords, 0);
+        }
+        generation = current;
+    }
+
+    private int previous(int slice) {
+        return slice == 0 ? slices - 1 : slice - 1;
+    }
+
+    private long bit(int slice, int h1, int h2) {
+        return (long) slice << sliceShift | (h1 + slice * h2) & sliceMask;
+    }
+
+    private static long hash(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return MurmurHash3.hash64xArray(bytes, 0, bytes.length, 0);
+    }
+}
@@ -0,0 +1,82 @@
+package membership;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static utils.RandomGenerator.getRandomStrings;
+
+class AgePartitionedBloomFilterTest {
+    private static final int sliceBits = 1 << 14;
+    private static final int k = 4;
+    private static final int l = 6;
+    private static final long ttl = 6000;
+    private static final int perGeneration = 1 << 10;
+    private static final int tests = 1 << 14;
+    private static final double maxErrorRate = 0.05;
+
+    @Test
+    void testExpiry() {
+        AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(sliceBits, k, l, ttl);
+        assertEquals(1000, apbf.generationLength());
+        apbf.add("test", 1500);
+        assertTrue(apbf.contains("test", 1500));
+        assertTrue(apbf.contains("test", 1500 + ttl - 1));
+        assertTrue(apbf.contains("test", 7999));
+        assertFalse(apbf.contains("test", 8000));
+        // the key is gone for good, even if time goes backwards
+        assertFalse(apbf.contains("test", 1500));
+    }
+
+    @Test
+    void testLongPauseClearsEverything() {
+        AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(sliceBits, k, l, ttl);
+        String[] keys = getRandomStrings(perGeneration, 16, 1);
+        for (String key : keys) apbf.add(key, 0);
+        for (String key : keys) assertFalse(apbf.contains(key, Long.MAX_VALUE));
+        apbf.add("test", 0);
+        apbf.clear();
+        assertFalse(apbf.contains("test", 0));
+    }
+
+    @Test
+    void testSlidingWindow() {
+        IntStream.rangeClosed(1, 20).parallel().forEach(t -> {
+            AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(sliceBits, k, l, ttl);
+            int generations = 40;
+            String[] keys = getRandomStrings(generations * perGeneration, 16, t);
+            // times are in 1 / perGeneration units of the generation length
+            long length = apbf.generationLength();
+            long falsePositives = 0, expiredTests = 0;
+            for (int i = 0; i < keys.length; i++) {
+                long now = (long) i * length / perGeneration;
+                apbf.add(keys[i], now);
+                if (i % 64 != 0) continue;
+                // no false negatives within the ttl
+                for (int j = i; j >= 0 && now - (long) j * length / perGeneration < ttl; j -= 97) assertTrue(apbf.contains(keys[j], now));
+                // keys older than ttl + generationLength behave like absent ones
+                long oldest = now - ttl - length;
+                for (int j = 0; (long) j * length / perGeneration < oldest && j < keys.length; j += 97, expiredTests++)
+                    if (apbf.contains(keys[j], now)) falsePositives++;
+            }
+            assertTrue(expiredTests > 0);
+            assertTrue((double) falsePositives / expiredTests <= maxErrorRate, "expired " + (double) falsePositives / expiredTests);
+            int fails = 0;
+            long now = (long) (keys.length - 1) * length / perGeneration;
+            for (String key : getRandomStrings(tests, 16, -t)) if (apbf.contains(key, now)) fails++;
+            assertTrue((double) fails / tests <= maxErrorRate, "absent " + (double) fails / tests);
+        });
+    }
+
+    @Test
+    void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new AgePartitionedBloomFilter(0, k, l, ttl));
+        assertThrows(IllegalArgumentException.class, () -> new AgePartitionedBloomFilter(sliceBits, 0, l, ttl));
+        assertThrows(IllegalArgumentException.class, () -> new AgePartitionedBloomFilter(sliceBits, k, 0, ttl));
+        assertThrows(IllegalArgumentException.class, () -> new AgePartitionedBloomFilter(sliceBits, k, l, l - 1));
+        assertThrows(IllegalArgumentException.class, () -> new AgePartitionedBloomFilter(1 << 30, 1000, 1000, ttl));
+        AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(sliceBits, k, l, ttl);
+        assertThrows(IllegalArgumentException.class, () -> apbf.add(null, 0));
+    }
+}
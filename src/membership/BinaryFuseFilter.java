@@ -0,0 +1,248 @@
+package membership;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Static 3-wise binary fuse filter (Graf, Lemire) of 64-bit keys: a key is in the filter if the xor of the
+// fingerprints in its three slots equals its own fingerprint. The slots are in three consecutive segments of a table of
+// about 1.125 * n fingerprints, which gives 1.125 * log2(1 / rate) bits per key and three memory accesses per lookup.
+// Fingerprints of 8, 16 or 32 bits are packed into longs, the false-positive rate is 2^-fingerprintBits.
+// Construction peels the keys: a slot hit by a single key fixes that key, which is removed from its other slots, and
+// the keys are then assigned in the reverse order. Keys are sorted by their first slot first, so the slots being
+// updated are close to each other, and for large sets mixing, sorting and counting run in parallel.
+public class BinaryFuseFilter {
+    private static final int ARITY = 3;
+    private static final int DEFAULT_FINGERPRINT_BITS = 8;
+    private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+    private static final int MAX_ATTEMPTS = 100;
+    private static final int PARALLEL_THRESHOLD = 1 << 20;
+    private static final long SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+    private final long[] words;
+    private final int fingerprintBits, fingerprintShift; // fingerprints per word is 2^fingerprintShift
+    private final long fingerprintMask;
+    private final int segmentLength, segmentLengthMask, segmentCount, segmentCountLength, arrayLength;
+    private final int size;
+    private final long seed;
+
+    public BinaryFuseFilter(long[] keys) {
+        this(keys, DEFAULT_FINGERPRINT_BITS);
+    }
+
+    // duplicate keys are allowed, the array is not modified
+    public BinaryFuseFilter(long[] keys, int fingerprintBits) {
+        if (keys == null) throw new IllegalArgumentException("Keys cannot be null");
+        if (fingerprintBits != 8 && fingerprintBits != 16 && fingerprintBits != 32)
+            throw new IllegalArgumentException("Fingerprints must have 8, 16 or 32 bits");
+
+        int n = keys.length;
+        int length = n == 0 ? 4 : 1 << (int) Math.floor(Math.log(n) / Math.log(3.33) + 2.25);
+        this.segmentLength = Math.min(length, MAX_SEGMENT_LENGTH);
+        this.segmentLengthMask = segmentLength - 1;
+        double sizeFactor = n <= 1 ? 0 : Math.max(1.125, 0.875 + 0.25 * Math.log(1e6) / Math.log(n));
+        long capacity = Math.round(n * sizeFactor);
+        long segments = (capacity + segmentLength - 1) / segmentLength;
+        segments = segments <= ARITY - 1 ? 1 : segments - (ARITY - 1);
+        if ((segments + ARITY - 1) * segmentLength > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many keys");
+        this.segmentCount = (int) segments;
+        this.segmentCountLength = segmentCount * segmentLength;
+        this.arrayLength = (segmentCount + ARITY - 1) * segmentLength;
+
+        this.fingerprintBits = fingerprintBits;
+        this.fingerprintShift = Integer.numberOfTrailingZeros(64 / fingerprintBits);
+        this.fingerprintMask = -1L >>> (64 - fingerprintBits);
+        this.words = new long[(arrayLength + (1 << fingerprintShift) - 1) >>> fingerprintShift];
+
+        Construction construction = new Construction(n, arrayLength);
+        long seed = 0;
+        for (int attempt = 0; ; attempt++) {
+            if (attempt == MAX_ATTEMPTS) throw new RuntimeException("Could not build the filter");
+            seed = mix(seed + SEED_INCREMENT);
+            if (construction.build(keys, seed)) break;
+        }
+        this.seed = seed;
+        this.size = construction.size;
+    }
+
+    public boolean contains(long key) {
+        long hash = mix(key + seed);
+        long h = unsignedMultiplyHigh(hash, segmentCountLength);
+        int h0 = (int) h;
+        int h1 = (int) (h + segmentLength) ^ (int) (hash >>> 18) & segmentLengthMask;
+        int h2 = (int) (h + 2L * segmentLength) ^ (int) hash & segmentLengthMask;
+        return ((fingerprint(hash) ^ get(h0) ^ get(h1) ^ get(h2)) & fingerprintMask) == 0;
+    }
+
+    // number of distinct keys
+    public int size() {
+        return size;
+    }
+
+    public int fingerprintBits() {
+        return fingerprintBits;
+    }
+
+    public double bitsPerKey() {
+        return size == 0 ? 0 : (double) words.length * Long.SIZE / size;
+    }
+
+    private long get(int slot) {
+        return words[slot >>> fingerprintShift] >>> (slot & (1 << fingerprintShift) - 1) * fingerprintBits;
+    }
+
+    private void set(int slot, long fingerprint) {
+        int shift = (slot & (1 << fingerprintShift) - 1) * fingerprintBits;
+        int word = slot >>> fingerprintShift;
+        words[word] = words[word] & ~(fingerprintMask << shift) | (fingerprint & fingerprintMask) << shift;
+    }
+
+    private long fingerprint(long hash) {
+        return (hash ^ hash >>> 32) & fingerprintMask;
+    }
+
+    private int slot(long hash, int index) {
+        long h = unsignedMultiplyHigh(hash, segmentCountLength);
+        switch (index) {
+            case 0:
+                return (int) h;
+            case 1:
+                return (int) (h + segmentLength) ^ (int) (hash >>> 18) & segmentLengthMask;
+            default:
+                return (int) (h + 2L * segmentLength) ^ (int) hash & segmentLengthMask;
+        }
+    }
+
+    private int segment(long hash) {
+        return (int) (unsignedMultiplyHigh(hash, segmentCountLength) / segmentLength);
+    }
+
+    // first slot of the hash is monotone in the unsigned order of hashes
+    private static long unsignedMultiplyHigh(long hash, long x) {
+        return Math.multiplyHigh(hash, x) + (hash >> 63 & x);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // scratch arrays of the construction, kept for the retries with another seed
+    private final class Construction {
+        private final long[] hashes, xors, stack;
+        private final byte[] counts, stackIndexes; // counts are the number of hashes << 2 | xor of their slot indexes
+        private final int[] alone;
+        private int size;
+
+        Construction(int n, int arrayLength) {
+            this.hashes = new long[n];
+            this.stack = new long[n];
+            this.stackIndexes = new byte[n];
+            this.xors = new long[arrayLength];
+            this.counts = new byte[arrayLength];
+            this.alone = new int[arrayLength];
+        }
+
+        boolean build(long[] keys, long seed) {
+            int n = keys.length;
+            boolean parallel = n >= PARALLEL_THRESHOLD;
+            // sorted in the unsigned order by flipping the sign bit
+            if (parallel) {
+                IntStream.range(0, n).parallel().forEach(i -> hashes[i] = mix(keys[i] + seed) ^ Long.MIN_VALUE);
+                Arrays.parallelSort(hashes);
+            } else {
+                for (int i = 0; i < n; i++) hashes[i] = mix(keys[i] + seed) ^ Long.MIN_VALUE;
+                Arrays.sort(hashes);
+            }
+            // equal hashes have equal slots and fingerprints, so one of them is enough
+            size = 0;
+            for (int i = 0; i < n; i++) {
+                long hash = hashes[i] ^ Long.MIN_VALUE;
+                if (size == 0 || hash != hashes[size - 1]) hashes[size++] = hash;
+            }
+
+            Arrays.fill(counts, (byte) 0);
+            Arrays.fill(xors, 0);
+            if (!(parallel ? addParallel() : add(0, size))) return false;
+            int peeled = peel();
+            if (peeled != size) return false;
+
+            Arrays.fill(words, 0);
+            for (int i = peeled - 1; i >= 0; i--) {
+                long hash = stack[i];
+                int found = stackIndexes[i];
+                long fingerprint = fingerprint(hash) ^ get(slot(hash, (found + 1) % ARITY)) ^ get(slot(hash, (found + 2) % ARITY));
+                set(slot(hash, found), fingerprint);
+            }
+            return true;
+        }
+
+        // hashes starting in a block of at least 2 segments touch only it and the next one, so even blocks and then
+        // odd blocks can be counted in parallel
+        private boolean addParallel() {
+            int blocks = Math.min(segmentCount / 2, 8 * Runtime.getRuntime().availableProcessors());
+            if (blocks < 2) return add(0, size);
+            int blockSegments = (segmentCount + blocks - 1) / blocks;
+            for (int phase = 0; phase < 2; phase++) {
+                int p = phase;
+                boolean overflow = IntStream.range(0, blocks).parallel().filter(b -> (b & 1) == p).anyMatch(b ->
+                        !add(firstHash(b * blockSegments), firstHash((b + 1) * blockSegments)));
+                if (overflow) return false;
+            }
+            return true;
+        }
+
+        // returns false if a slot has too many hashes
+        private boolean add(int from, int to) {
+            for (int i = from; i < to; i++) {
+                long hash = hashes[i];
+                for (int index = 0; index < ARITY; index++) {
+                    int slot = slot(hash, index);
+                    int count = counts[slot] & 0xFF;
+                    if (count >= 0xFC) return false;
+                    counts[slot] = (byte) ((count + 4) ^ index);
+                    xors[slot] ^= hash;
+                }
+            }
+            return true;
+        }
+
+        // index of the first hash starting at the segment or later
+        private int firstHash(int segment) {
+            if (segment >= segmentCount) return size;
+            int low = 0, high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (segment(hashes[mid]) < segment) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        // returns the number of peeled hashes, a slot gets into the queue once, when it has a single hash
+        private int peel() {
+            int queued = 0;
+            for (int slot = 0; slot < arrayLength; slot++) if ((counts[slot] & 0xFF) >>> 2 == 1) alone[queued++] = slot;
+            int peeled = 0;
+            while (queued > 0) {
+                int slot = alone[--queued];
+                if ((counts[slot] & 0xFF) >>> 2 != 1) continue;
+                long hash = xors[slot];
+                int found = counts[slot] & 3;
+                stack[peeled] = hash;
+                stackIndexes[peeled++] = (byte) found;
+                for (int i = 1; i < ARITY; i++) {
+                    int index = (found + i) % ARITY, other = slot(hash, index);
+                    int count = counts[other] & 0xFF;
+                    if (count >>> 2 == 2) alone[queued++] = other;
+                    counts[other] = (byte) ((count - 4) ^ index);
+                    xors[other] ^= hash;
+                }
+            }
+            return peeled;
+        }
+    }
+}
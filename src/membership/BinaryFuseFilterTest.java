@@ -0,0 +1,90 @@
+package membership;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static utils.RandomGenerator.getRandomLongs;
+
+class BinaryFuseFilterTest {
+    private static final int tests = 1 << 20;
+
+    private static double falsePositiveRate(BinaryFuseFilter filter, long seed) {
+        int fails = 0;
+        for (long key : getRandomLongs(tests, seed)) if (filter.contains(key)) fails++;
+        return (double) fails / tests;
+    }
+
+    @Test
+    void testContainsExisting() {
+        IntStream.of(0, 1, 2, 3, 10, 100, 1000, 12345, 1 << 17).parallel().forEach(n -> {
+            for (int bits : new int[]{8, 16, 32}) {
+                long[] keys = getRandomLongs(n, n + 1);
+                BinaryFuseFilter filter = new BinaryFuseFilter(keys, bits);
+                assertEquals(n, filter.size());
+                for (long key : keys) assertTrue(filter.contains(key));
+            }
+        });
+    }
+
+    @Test
+    void testFalsePositiveRate() {
+        long[] keys = getRandomLongs(1 << 18, 1);
+        BinaryFuseFilter filter = new BinaryFuseFilter(keys);
+        assertEquals(1.0 / 256, falsePositiveRate(filter, -1), 0.0005);
+        // smaller sets get a bit more space, 1.15 * 8 bits per key here
+        assertTrue(filter.bitsPerKey() < 8 * 1.2);
+        filter = new BinaryFuseFilter(keys, 16);
+        assertTrue(falsePositiveRate(filter, -1) < 4.0 / 65536);
+        assertTrue(filter.bitsPerKey() < 16 * 1.2);
+    }
+
+    @Test
+    void testDuplicates() {
+        long[] keys = getRandomLongs(1 << 12, 1);
+        long[] duplicated = new long[keys.length * 3];
+        for (int i = 0; i < duplicated.length; i++) duplicated[i] = keys[i % keys.length];
+        BinaryFuseFilter filter = new BinaryFuseFilter(duplicated);
+        assertEquals(keys.length, filter.size());
+        for (long key : keys) assertTrue(filter.contains(key));
+        // the keys are not modified
+        assertEquals(keys[0], duplicated[0]);
+        assertEquals(keys[1], duplicated[keys.length + 1]);
+    }
+
+    @Test
+    void testParallelConstruction() {
+        long[] keys = getRandomLongs(1 << 21, 2);
+        BinaryFuseFilter filter = new BinaryFuseFilter(keys);
+        for (long key : keys) assertTrue(filter.contains(key));
+        assertEquals(1.0 / 256, falsePositiveRate(filter, -2), 0.0005);
+        assertTrue(filter.bitsPerKey() < 8 * 1.13);
+    }
+
+    @Test
+    void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new BinaryFuseFilter(null));
+        assertThrows(IllegalArgumentException.class, () -> new BinaryFuseFilter(new long[1], 4));
+    }
+
+    @Test
+    @Disabled
+    void testThroughput() {
+        int n = 1 << 24;
+        long[] keys = getRandomLongs(n, 1);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            BinaryFuseFilter filter = new BinaryFuseFilter(keys);
+            long build = System.nanoTime() - start;
+            long[] probes = getRandomLongs(n, -round - 1);
+            start = System.nanoTime();
+            int found = 0;
+            for (long key : probes) if (filter.contains(key)) found++;
+            long lookup = System.nanoTime() - start;
+            System.out.printf("build %.1f ns/key, %.2f bits/key; contains %.1f ns (%d false positives)%n",
+                    (double) build / n, filter.bitsPerKey(), (double) lookup / n, found);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package membership;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Thread-safe cuckoo filter. Buckets are split into groups which take whole words of the table, groups are striped
+// over 2^12 locks, every lock has a version which is odd while a writer holds it, so it is a spinlock for writers and
+// a seqlock for readers. Writers lock the stripes of both buckets of a key in ascending order, readers don't lock,
+// they check that versions of both stripes didn't change. An eviction path is searched without locks and then every
+// fingerprint is moved along it from the end under locks of its two buckets, so a moved fingerprint is never missed.
+public class ConcurrentCuckooFilter extends CuckooFilter {
+    private static final int MAX_STRIPES = 1 << 12;
+    private static final int OPTIMISTIC_READS = 8;
+    private static final int MAX_ATTEMPTS = 16;
+
+    private final AtomicLongArray versions;
+    private final LongAdder size = new LongAdder();
+    private final int groupShift, stripeMask;
+    private final ThreadLocal<EvictionPath> paths = ThreadLocal.withInitial(EvictionPath::new);
+
+    public ConcurrentCuckooFilter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ConcurrentCuckooFilter(int capacity) {
+        this(capacity, DEFAULT_FINGERPRINT_BITS, DEFAULT_BUCKET_SIZE);
+    }
+
+    public ConcurrentCuckooFilter(int capacity, int fingerprintBits, int bucketSize) {
+        this(capacity, fingerprintBits, bucketSize, randomSeed());
+    }
+
+    public ConcurrentCuckooFilter(int capacity, int fingerprintBits, int bucketSize, int seed) {
+        super(capacity, fingerprintBits, bucketSize, seed);
+        this.groupShift = groupShift(bucketSize, fingerprintBits);
+        int stripes = Math.min(Math.max((mask + 1) >>> groupShift, 1), MAX_STRIPES);
+        this.stripeMask = stripes - 1;
+        this.versions = new AtomicLongArray(stripes);
+    }
+
+    // buckets of a group take a multiple of 64 bits, so writers of different groups never share words
+    private static int groupShift(int bucketSize, int fingerprintBits) {
+        return 6 - Math.min(Integer.numberOfTrailingZeros(bucketSize * fingerprintBits), 6);
+    }
+
+    @Override
+    public long size() {
+        return size.sum();
+    }
+
+    @Override
+    boolean containsHash(long hash) {
+        long fingerprint = fingerprint(hash);
+        int hash1 = (int) hash & mask;
+        int hash2 = hash1 ^ hashFingerprint(fingerprint);
+        int stripe1 = stripe(hash1), stripe2 = stripe(hash2);
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            long v1 = versions.get(stripe1), v2 = versions.get(stripe2);
+            if (((v1 | v2) & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long found = probe(hash1, fingerprint) | probe(hash2, fingerprint);
+            VarHandle.acquireFence();
+            if (versions.get(stripe1) == v1 && versions.get(stripe2) == v2) return found != 0;
+        }
+        // too many writers, read under locks
+        lock(stripe1, stripe2);
+        try {
+            return (probe(hash1, fingerprint) | probe(hash2, fingerprint)) != 0;
+        } finally {
+            unlock(stripe1, stripe2);
+        }
+    }
+
+    @Override
+    int addHash(long hash) {
+        long fingerprint = fingerprint(hash);
+        int hash1 = (int) hash & mask;
+        int hash2 = hash1 ^ hashFingerprint(fingerprint);
+        int stripe1 = stripe(hash1), stripe2 = stripe(hash2);
+        for (int attempt = 0; ; attempt++) {
+            int result;
+            lock(stripe1, stripe2);
+            try {
+                result = insert(hash1, hash2, fingerprint);
+            } finally {
+                unlock(stripe1, stripe2);
+            }
+            if (result != FULL) {
+                if (result == ADDED) size.increment();
+                return result;
+            }
+            // another writer may take the freed slot first, then the path is searched again
+            if (attempt == MAX_ATTEMPTS || !evict(hash1, hash2)) return FULL;
+        }
+    }
+
+    private int insert(int hash1, int hash2, long fingerprint) {
+        if ((probe(hash1, fingerprint) | probe(hash2, fingerprint)) != 0) return PRESENT;
+        int n1 = count(hash1);
+        int n2 = count(hash2);
+        if (n1 <= n2 && n1 < bucketSize()) set(hash1, emptySlot(hash1), fingerprint);
+        else if (n2 < n1) set(hash2, emptySlot(hash2), fingerprint);
+        else return FULL;
+        return ADDED;
+    }
+
+    // frees a slot in one of the buckets unless another writer changes the path, returns false if there is no path
+    private boolean evict(int hash1, int hash2) {
+        EvictionPath path = paths.get();
+        if (!findEvictionPath(hash1, hash2, path)) return false;
+        int to = path.alternate, slot = path.slot;
+        for (int n = path.node; n >= 0; n = path.parents[n]) {
+            if (!move(path.buckets[n], slot, to)) return true;
+            to = path.buckets[n];
+            slot = path.slots[n];
+        }
+        return true;
+    }
+
+    // moves the fingerprint from the slot into the alternate bucket if the path is still valid,
+    // moves of fingerprints between their own buckets don't change the set, so an aborted path changes nothing
+    private boolean move(int bucket, int slot, int alternate) {
+        int stripe1 = stripe(bucket), stripe2 = stripe(alternate);
+        lock(stripe1, stripe2);
+        try {
+            long fingerprint = get(bucket, slot);
+            if (fingerprint == 0) return true; // removed meanwhile
+            if ((bucket ^ hashFingerprint(fingerprint)) != alternate) return false;
+            int empty = emptySlot(alternate);
+            if (empty < 0) return false;
+            set(alternate, empty, fingerprint);
+            set(bucket, slot, 0);
+            return true;
+        } finally {
+            unlock(stripe1, stripe2);
+        }
+    }
+
+    @Override
+    boolean removeHash(long hash) {
+        long fingerprint = fingerprint(hash);
+        int hash1 = (int) hash & mask;
+        int hash2 = hash1 ^ hashFingerprint(fingerprint);
+        int stripe1 = stripe(hash1), stripe2 = stripe(hash2);
+        lock(stripe1, stripe2);
+        try {
+            if (!remove(hash1, fingerprint) && !remove(hash2, fingerprint)) return false;
+        } finally {
+            unlock(stripe1, stripe2);
+        }
+        size.decrement();
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (int s = 0; s <= stripeMask; s++) lock(s);
+        try {
+            super.clear();
+            size.reset();
+        } finally {
+            for (int s = 0; s <= stripeMask; s++) unlock(s);
+        }
+    }
+
+    private int stripe(int bucket) {
+        return bucket >>> groupShift & stripeMask;
+    }
+
+    // stripes are locked in ascending order, so writers never wait for each other in a cycle
+    private void lock(int stripe1, int stripe2) {
+        lock(Math.min(stripe1, stripe2));
+        if (stripe1 != stripe2) lock(Math.max(stripe1, stripe2));
+        VarHandle.storeStoreFence();
+    }
+
+    private void unlock(int stripe1, int stripe2) {
+        unlock(stripe1);
+        if (stripe1 != stripe2) unlock(stripe2);
+    }
+
+    private void lock(int stripe) {
+        while (true) {
+            long v = versions.get(stripe);
+            if ((v & 1) == 0 && versions.compareAndSet(stripe, v, v + 1)) return;
+            Thread.onSpinWait();
+        }
+    }
+
+    private void unlock(int stripe) {
+        versions.set(stripe, versions.get(stripe) + 1);
+    }
+}
@@ -0,0 +1,173 @@
+package membership;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import prng.XorShift64;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentCuckooFilterTest {
+    private static final int capacity = 1 << 14;
+    private static final int threads = 8;
+    private static final double maxErrorRate = 0.01;
+
+    private static String[][] keys(int threads, int perThread, long seed) {
+        XorShift64 random = new XorShift64(seed);
+        String[][] keys = new String[threads][perThread];
+        for (String[] part : keys) for (int i = 0; i < perThread; i++) part[i] = Long.toHexString(random.nextLong());
+        return keys;
+    }
+
+    @Test
+    void testContainsAlreadyExisting() {
+        IntStream.rangeClosed(1, 100).parallel().forEach(t -> {
+            ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(1 << 10);
+            String[] keys = keys(1, 7000, t)[0];
+            for (String key : keys) filter.add(key);
+            for (String key : keys) {
+                assertTrue(filter.contains(key));
+                assertFalse(filter.add(key));
+            }
+        });
+    }
+
+    @Test
+    void testConcurrentAdd() {
+        // 12-bit fingerprints cross words, so buckets of different stripes must still not share them
+        int[][] sizes = {{8, 8}, {12, 2}, {12, 4}, {16, 4}, {32, 2}};
+        for (int[] size : sizes) {
+            ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(capacity, size[0], size[1]);
+            String[][] keys = keys(threads, (int) (capacity * size[1] * 0.85) / threads, size[0] * 10L + size[1]);
+            AtomicLong added = new AtomicLong();
+            IntStream.range(0, threads).parallel().forEach(t -> {
+                long counter = 0;
+                for (String key : keys[t]) if (filter.add(key)) counter++;
+                added.addAndGet(counter);
+            });
+            assertEquals(added.get(), filter.size());
+            // keys are not added if their fingerprint is already in one of their buckets
+            double errorRate = 2 * size[1] * Math.pow(2, -size[0]);
+            assertTrue(filter.size() > keys.length * keys[0].length * (1 - errorRate - maxErrorRate));
+            IntStream.range(0, threads).parallel().forEach(t -> {
+                for (String key : keys[t]) assertTrue(filter.contains(key));
+            });
+        }
+    }
+
+    @Test
+    void testErrorRateForContainsNonExisting() {
+        ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(capacity, 16, 4);
+        String[][] keys = keys(threads, capacity * 4 * 9 / 10 / threads, 1);
+        IntStream.range(0, threads).parallel().forEach(t -> {
+            for (String key : keys[t]) filter.add(key);
+        });
+        String[] other = keys(1, capacity, 2)[0];
+        int fails = 0;
+        for (String key : other) if (filter.contains(key)) fails++;
+        assertTrue(fails < capacity * maxErrorRate);
+    }
+
+    @Test
+    void testReadersDuringWrites() {
+        // writers fill the filter up to a high load, so fingerprints are moved along eviction paths
+        ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(capacity, 16, 4);
+        String[] existing = keys(1, capacity * 2, 1)[0];
+        for (String key : existing) filter.add(key);
+        String[][] keys = keys(threads / 2, capacity * 4 * 9 / 20 / (threads / 2), 2);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread[] writers = new Thread[keys.length];
+        for (int w = 0; w < writers.length; w++) {
+            String[] part = keys[w];
+            writers[w] = new Thread(() -> {
+                for (String key : part) filter.add(key);
+            });
+            writers[w].start();
+        }
+        IntStream.range(0, threads / 2).parallel().forEach(t -> {
+            // keys added before writers started must never be missed
+            int i = 0;
+            while (!done.get() || i % existing.length != 0) {
+                assertTrue(filter.contains(existing[i % existing.length]));
+                i++;
+                if (i % existing.length == 0 && !writersAlive(writers)) done.set(true);
+            }
+        });
+        for (String[] part : keys) for (String key : part) assertTrue(filter.contains(key));
+    }
+
+    private static boolean writersAlive(Thread[] writers) {
+        for (Thread writer : writers) if (writer.isAlive()) return true;
+        return false;
+    }
+
+    @Test
+    void testConcurrentRemove() {
+        ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(capacity, 16, 4);
+        String[][] keys = keys(threads, capacity * 4 * 9 / 10 / threads, 3);
+        List<List<String>> added = new ArrayList<>();
+        for (int t = 0; t < threads; t++) added.add(new ArrayList<>());
+        IntStream.range(0, threads).parallel().forEach(t -> {
+            for (String key : keys[t]) if (filter.add(key)) added.get(t).add(key);
+        });
+        // half of the threads remove their keys while the other half adds them again
+        IntStream.range(0, threads).parallel().forEach(t -> {
+            if (t % 2 == 0) for (String key : added.get(t)) assertTrue(filter.remove(key));
+            else for (String key : added.get(t)) assertFalse(filter.add(key));
+        });
+        long left = 0;
+        for (int t = 1; t < threads; t += 2) left += added.get(t).size();
+        assertEquals(left, filter.size());
+        IntStream.range(0, threads).parallel().forEach(t -> {
+            if (t % 2 != 0) for (String key : added.get(t)) assertTrue(filter.remove(key));
+        });
+        assertEquals(0, filter.size());
+    }
+
+    @Test
+    void testFull() {
+        ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(1 << 10, 16, 4);
+        XorShift64 random = new XorShift64(1);
+        assertThrows(RuntimeException.class, () -> {
+            //noinspection InfiniteLoopStatement
+            while (true) filter.add(Long.toHexString(random.nextLong()));
+        });
+        assertTrue(filter.size() > (1 << 10) * 4 * 0.9);
+    }
+
+    @Test
+    void testClear() {
+        ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(1 << 10);
+        String[] keys = keys(1, 7000, 1)[0];
+        for (String key : keys) filter.add(key);
+        filter.clear();
+        assertEquals(0, filter.size());
+        int fails = 0;
+        for (String key : keys) if (filter.contains(key)) fails++;
+        assertEquals(0, fails);
+    }
+
+    @Test
+    @Disabled
+    void testReadScaling() {
+        ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(1 << 20, 16, 4);
+        String[] keys = keys(1, (1 << 22) * 9 / 10, 1)[0];
+        for (String key : keys) filter.add(key);
+        for (int readers = 1; readers <= Runtime.getRuntime().availableProcessors(); readers *= 2) {
+            int n = readers;
+            long start = System.nanoTime();
+            long found = IntStream.range(0, n).parallel().mapToLong(t -> {
+                long counter = 0;
+                for (int i = t; i < keys.length * 4; i += n) if (filter.contains(keys[i % keys.length])) counter++;
+                return counter;
+            }).sum();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d readers: %.1f M lookups/s (%d found)%n", n, keys.length * 4 / seconds / 1e6, found);
+        }
+    }
+}
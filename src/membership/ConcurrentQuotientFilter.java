@@ -0,0 +1,304 @@
+package membership;
+
+import utils.BitPackedArray;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+// Thread-safe quotient filter. Slots are split into regions of 2^12 slots, every region has a version which is odd
+// while a writer holds the region, so it is a spinlock for writers and a seqlock for readers. Insert locks the region
+// of its quotient and the next one, and if the cluster goes beyond them locks a twice wider range in ascending order,
+// so a cluster over many regions is rescanned only a logarithmic number of times.
+// Readers don't lock, they check that versions of the regions they read didn't change.
+// Runs never wrap around the end of the table, a few extra slots at the end take runs of the last quotients.
+public class ConcurrentQuotientFilter<K> {
+    private static final int MAX_BITS = 40;
+    private static final int MAX_REMAINDER_BITS = 60;
+    private static final int HASH_BITS = 64;
+    private static final int DEFAULT_REMAINDER_BITS = 5;
+    private static final int REGION_BITS = 12; // multiple of 64 slots, so writers of different regions don't share words
+    private static final int OPTIMISTIC_READS = 8;
+    private static final int metadataBits = 3;
+    private static final long occupiedBit = 1;
+    private static final long continuationBit = 1 << 1;
+    private static final long shiftBit = 1 << 2;
+    private static final long metadataMask = occupiedBit | continuationBit | shiftBit;
+    // results of operations limited to the locked or validated slots
+    private static final int ABSENT = 0, PRESENT = 1, NEED_LOWER = -1, NEED_HIGHER = -2;
+
+    private final BitPackedArray t;
+    private final AtomicLongArray versions;
+    private final LongAdder size = new LongAdder();
+    private final ToLongFunction<? super K> hasher;
+    private final int bitsR, regions;
+    private final long maskQ, maskR, slots;
+
+    public ConcurrentQuotientFilter(int bits) {
+        this(bits, DEFAULT_REMAINDER_BITS);
+    }
+
+    public ConcurrentQuotientFilter(int bits, int remainderBits) {
+        this(bits, remainderBits, QuotientFilter.DEFAULT_HASHER);
+    }
+
+    // hasher must spread keys over all 64 bits, the lowest remainderBits of the hash are the remainder
+    public ConcurrentQuotientFilter(int bits, int remainderBits, ToLongFunction<? super K> hasher) {
+        if (hasher == null) throw new IllegalArgumentException("Hasher must not be null");
+        if (bits < 0) throw new IllegalArgumentException("Bits must be positive");
+        if (bits > MAX_BITS) throw new IllegalArgumentException("Too many bits");
+        if (remainderBits <= 0 || remainderBits > MAX_REMAINDER_BITS)
+            throw new IllegalArgumentException("Remainder bits must be in [1, " + MAX_REMAINDER_BITS + "]");
+        if (bits + remainderBits > HASH_BITS)
+            throw new IllegalArgumentException("Quotient and remainder must fit into " + HASH_BITS + " bits");
+
+        long quotients = 1L << bits;
+        long extra = 10 * (long) Math.ceil(Math.sqrt(quotients)) + 64;
+        long regions = (quotients + extra + (1 << REGION_BITS) - 1) >>> REGION_BITS;
+        if (regions > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many bits");
+
+        this.hasher = hasher;
+        this.bitsR = remainderBits;
+        this.maskQ = quotients - 1;
+        this.maskR = (1L << remainderBits) - 1;
+        this.slots = (quotients + extra + 63) & -64;
+        this.regions = (int) regions;
+        this.versions = new AtomicLongArray(this.regions);
+        // the last slot is always empty, so scans stop at the end of the table
+        this.t = new BitPackedArray(slots + 1, remainderBits + metadataBits);
+    }
+
+    public boolean contains(K key) {
+        return containsHash(hasher.applyAsLong(key));
+    }
+
+    // primitive keys are hashed like boxed Longs by the hasher of the filter
+    public boolean contains(long key) {
+        return containsHash(QuotientFilter.hashLong(hasher, key));
+    }
+
+    public boolean containsHash(long hash) {
+        long fq = getQuotient(hash);
+        long fr = getRemainder(hash);
+        int lo = region(fq), hi = lo;
+        for (int attempt = 0; ; attempt++) {
+            int result;
+            if (attempt < OPTIMISTIC_READS) {
+                long stamp = stamp(lo, hi);
+                if (stamp < 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                result = contains(fq, fr, from(lo), to(hi));
+                if (!validate(lo, hi, stamp)) continue;
+            } else {
+                // too many writers, read under locks
+                lock(lo, hi);
+                try {
+                    result = contains(fq, fr, from(lo), to(hi));
+                } finally {
+                    unlock(lo, hi);
+                }
+            }
+            if (result == NEED_LOWER) lo = Math.max(lo - (hi - lo + 1), 0);
+            else if (result == NEED_HIGHER) hi = Math.min(hi + (hi - lo + 1), regions - 1);
+            else return result == PRESENT;
+        }
+    }
+
+    public boolean add(K key) {
+        return addHash(hasher.applyAsLong(key));
+    }
+
+    public boolean add(long key) {
+        return addHash(QuotientFilter.hashLong(hasher, key));
+    }
+
+    public boolean addHash(long hash) {
+        long fq = getQuotient(hash);
+        long fr = getRemainder(hash);
+        int lo = region(fq), hi = Math.min(lo + 1, regions - 1);
+        while (true) {
+            int result;
+            lock(lo, hi);
+            try {
+                result = insert(fq, fr, from(lo), to(hi));
+            } finally {
+                unlock(lo, hi);
+            }
+            if (result == NEED_LOWER) lo = Math.max(lo - (hi - lo + 1), 0);
+            else if (result == NEED_HIGHER) hi = Math.min(hi + (hi - lo + 1), regions - 1);
+            else {
+                if (result == ABSENT) size.increment();
+                return result == ABSENT;
+            }
+        }
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    public long capacity() {
+        return maskQ + 1;
+    }
+
+    public int remainderBits() {
+        return bitsR;
+    }
+
+    public boolean isEmpty() {
+        return size.sum() == 0;
+    }
+
+    public void clear() {
+        lock(0, regions - 1);
+        try {
+            t.clear();
+            size.reset();
+        } finally {
+            unlock(0, regions - 1);
+        }
+    }
+
+    // everything below reads and writes only slots in [from, to] and asks for a wider range otherwise
+
+    private int contains(long fq, long fr, long from, long to) {
+        if ((t.get(fq) & occupiedBit) == 0) return ABSENT;
+        long s = findStartOfRun(fq, from, to);
+        if (s < 0) return (int) s;
+
+        // runs are sorted by remainder, so we can stop at the first greater one
+        long slot = t.get(s);
+        do {
+            long r = slot >>> metadataBits;
+            if (r == fr) return PRESENT;
+            if (r > fr) return ABSENT;
+            if (++s > to) return NEED_HIGHER;
+            slot = t.get(s);
+        } while ((slot & continuationBit) != 0);
+        return ABSENT;
+    }
+
+    // returns ABSENT if the remainder was inserted and PRESENT if it was already there
+    private int insert(long fq, long fr, long from, long to) {
+        // if canonical slot is empty, create new run in it
+        long canonical = t.get(fq);
+        if ((canonical & metadataMask) == 0) {
+            t.set(fq, fr << metadataBits | occupiedBit);
+            return ABSENT;
+        }
+
+        boolean runExists = (canonical & occupiedBit) != 0;
+        long start = findStartOfRun(fq, from, to), s = start;
+        if (start < 0) return (int) start;
+
+        // find the position of the remainder in the sorted run
+        if (runExists) {
+            long slot = t.get(s);
+            do {
+                long r = slot >>> metadataBits;
+                if (r == fr) return PRESENT;
+                if (r > fr) break;
+                if (++s > to) return NEED_HIGHER;
+                slot = t.get(s);
+            } while ((slot & continuationBit) != 0);
+        }
+
+        // everything up to the first empty slot is shifted, it must be locked before anything is changed
+        long empty = s;
+        while ((t.get(empty) & metadataMask) != 0) if (++empty > to) return NEED_HIGHER;
+        if (empty == slots) throw new RuntimeException("ConcurrentQuotientFilter is full");
+
+        t.set(fq, canonical | occupiedBit);
+        long entry = fr << metadataBits;
+        if (s != start) entry |= continuationBit;
+        if (s != fq) entry |= shiftBit;
+        // if the new remainder becomes the head of the run, the old head continues it
+        boolean headMoved = runExists && s == start;
+        for (; s <= empty; s++) {
+            long prevValue = t.get(s);
+            t.set(s, prevValue & occupiedBit | entry);
+            entry = prevValue & ~occupiedBit | shiftBit;
+            if (headMoved) {
+                entry |= continuationBit;
+                headMoved = false;
+            }
+        }
+        return ABSENT;
+    }
+
+    // start of the run of fq or where it would start if fq had a run
+    private long findStartOfRun(long fq, long from, long to) {
+        // find start of the cluster counting the runs of quotients before fq, the first slot is never shifted
+        long b = fq, runs = 0;
+        while ((t.get(b) & shiftBit) != 0) {
+            if (b == from) return NEED_LOWER;
+            runs += t.get(--b) & occupiedBit;
+        }
+
+        // skip as many runs from the start of the cluster, like in QuotientFilter
+        long s = b;
+        while (runs > 0) {
+            if (++s > to) return NEED_HIGHER;
+            runs -= (~t.get(s) & continuationBit) >>> 1;
+        }
+        return s;
+    }
+
+    private int region(long slot) {
+        return (int) (slot >>> REGION_BITS);
+    }
+
+    private long from(int region) {
+        return (long) region << REGION_BITS;
+    }
+
+    // the last region includes the always empty slot at the end
+    private long to(int region) {
+        return region == regions - 1 ? slots : ((long) (region + 1) << REGION_BITS) - 1;
+    }
+
+    private void lock(int lo, int hi) {
+        for (int r = lo; r <= hi; r++) {
+            while (true) {
+                long v = versions.get(r);
+                if ((v & 1) == 0 && versions.compareAndSet(r, v, v + 1)) break;
+                Thread.onSpinWait();
+            }
+        }
+        VarHandle.storeStoreFence();
+    }
+
+    private void unlock(int lo, int hi) {
+        for (int r = lo; r <= hi; r++) versions.set(r, versions.get(r) + 1);
+    }
+
+    // versions only grow, so the sum of versions of the regions doesn't change only if none of them changed
+    private long stamp(int lo, int hi) {
+        long sum = 0;
+        for (int r = lo; r <= hi; r++) {
+            long v = versions.get(r);
+            if ((v & 1) != 0) return -1;
+            sum += v;
+        }
+        return sum;
+    }
+
+    private boolean validate(int lo, int hi, long stamp) {
+        VarHandle.acquireFence();
+        long sum = 0;
+        for (int r = lo; r <= hi; r++) sum += versions.get(r);
+        return sum == stamp;
+    }
+
+    // the lowest bitsR bits are the remainder, the next bits are the quotient
+    private long getQuotient(long hash) {
+        return hash >>> bitsR & maskQ;
+    }
+
+    private long getRemainder(long hash) {
+        return hash & maskR;
+    }
+}
@@ -0,0 +1,190 @@
+package membership;
+
+import org.junit.jupiter.api.Test;
+import prng.XorShift32;
+import prng.XorShift64;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentQuotientFilterTest {
+    private static final int numberOfTests = 100;
+    private static final int bitsForFilter = 16;
+    private static final int capacity = 1 << bitsForFilter;
+    private static final int numberOfElements = (int) (capacity * 0.9);
+    private static final int threads = 8;
+    private static final double maxErrorRate = 0.05;
+
+    @Test
+    void testContainsAlreadyExisting() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            ConcurrentQuotientFilter<Integer> filter = new ConcurrentQuotientFilter<>(12);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < 4000; i++) filter.add(random.nextInteger());
+            random = new XorShift32(t);
+            for (int i = 0; i < 4000; i++) {
+                int key = random.nextInteger();
+                assertTrue(filter.contains(key));
+                assertFalse(filter.add(key));
+            }
+        });
+    }
+
+    @Test
+    void testErrorRateForContainsNonExisting() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            ConcurrentQuotientFilter<Integer> filter = new ConcurrentQuotientFilter<>(12);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < 4000; i++) filter.add(random.nextInteger());
+            int fails = 0;
+            for (int i = 0; i < 4000; i++) if (filter.contains(random.nextInteger())) fails++;
+            assertTrue(fails < 4000 * maxErrorRate);
+        });
+    }
+
+    @Test
+    void testConcurrentAdd() {
+        ConcurrentQuotientFilter<Long> filter = new ConcurrentQuotientFilter<>(bitsForFilter, 8);
+        AtomicLong added = new AtomicLong();
+        IntStream.range(0, threads).parallel().forEach(t -> {
+            XorShift64 random = new XorShift64(t + 1);
+            long counter = 0;
+            for (int i = 0; i < numberOfElements / threads; i++) if (filter.add(random.nextLong())) counter++;
+            added.addAndGet(counter);
+        });
+        assertEquals(added.get(), filter.size());
+        assertTrue(filter.size() > numberOfElements * (1 - maxErrorRate));
+        IntStream.range(0, threads).parallel().forEach(t -> {
+            XorShift64 random = new XorShift64(t + 1);
+            for (int i = 0; i < numberOfElements / threads; i++) assertTrue(filter.contains(random.nextLong()));
+        });
+    }
+
+    @Test
+    void testConcurrentExact() {
+        // identity hasher over quotient and remainder bits, so there are no false positives
+        int bits = 14, remainderBits = 4;
+        long mask = (1L << (bits + remainderBits)) - 1;
+        for (int test = 1; test <= 10; test++) {
+            ConcurrentQuotientFilter<Long> filter = new ConcurrentQuotientFilter<>(bits, remainderBits, key -> key);
+            long[][] keys = new long[threads][];
+            XorShift64 random = new XorShift64(test);
+            Set<Long> all = new HashSet<>();
+            for (int t = 0; t < threads; t++) {
+                keys[t] = new long[(int) (0.9 * (1 << bits) / threads)];
+                for (int i = 0; i < keys[t].length; i++) {
+                    keys[t][i] = random.nextLong() & mask;
+                    all.add(keys[t][i]);
+                }
+            }
+            IntStream.range(0, threads).parallel().forEach(t -> {
+                for (long key : keys[t]) filter.add(Long.valueOf(key));
+            });
+            assertEquals(all.size(), filter.size());
+            for (long key = 0; key <= mask; key++) assertEquals(all.contains(key), filter.contains(Long.valueOf(key)));
+        }
+    }
+
+    @Test
+    void testClusterOverManyRegions() {
+        // all keys have quotients below 2^9, so they form one cluster over several regions of 2^12 slots
+        int bits = 16, remainderBits = 5;
+        long mask = (1L << (9 + remainderBits)) - 1;
+        ConcurrentQuotientFilter<Long> filter = new ConcurrentQuotientFilter<>(bits, remainderBits, key -> key);
+        long[][] keys = new long[threads][];
+        XorShift64 random = new XorShift64(1);
+        Set<Long> all = new HashSet<>();
+        for (int t = 0; t < threads; t++) {
+            keys[t] = new long[1 << 11];
+            for (int i = 0; i < keys[t].length; i++) {
+                keys[t][i] = random.nextLong() & mask;
+                all.add(keys[t][i]);
+            }
+        }
+        IntStream.range(0, threads).parallel().forEach(t -> {
+            for (long key : keys[t]) {
+                filter.add(Long.valueOf(key));
+                assertTrue(filter.contains(Long.valueOf(key)));
+            }
+        });
+        assertEquals(all.size(), filter.size());
+        for (long key = 0; key <= mask; key++) assertEquals(all.contains(key), filter.contains(Long.valueOf(key)));
+    }
+
+    @Test
+    void testPrimitiveKeysUseCustomHasher() {
+        ConcurrentQuotientFilter<Long> filter = new ConcurrentQuotientFilter<>(10, 8, key -> key);
+        for (long key = 0; key < 500; key++) {
+            if (key % 2 == 0) assertTrue(filter.add(Long.valueOf(key)));
+            else assertTrue(filter.add(key));
+        }
+        for (long key = 0; key < 500; key++) {
+            assertTrue(filter.contains(key));
+            assertTrue(filter.contains(Long.valueOf(key)));
+        }
+        assertFalse(filter.contains(500L));
+    }
+
+    @Test
+    void testReadersDuringWrites() {
+        ConcurrentQuotientFilter<Long> filter = new ConcurrentQuotientFilter<>(bitsForFilter, 8);
+        XorShift64 random = new XorShift64(1);
+        long[] existing = new long[numberOfElements / 2];
+        for (int i = 0; i < existing.length; i++) {
+            existing[i] = random.nextLong();
+            filter.add(existing[i]);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Thread[] writers = new Thread[threads / 2];
+        for (int w = 0; w < writers.length; w++) {
+            int seed = w + 2;
+            writers[w] = new Thread(() -> {
+                XorShift64 r = new XorShift64(seed);
+                for (int i = 0; i < numberOfElements / 2 / writers.length; i++) filter.add(r.nextLong());
+            });
+            writers[w].start();
+        }
+        IntStream.range(0, threads / 2).parallel().forEach(t -> {
+            // keys added before writers started must never be missed
+            int i = 0;
+            while (!done.get() || i % existing.length != 0) {
+                assertTrue(filter.contains(existing[i % existing.length]));
+                i++;
+                if (i % existing.length == 0 && !writersAlive(writers)) done.set(true);
+            }
+        });
+        assertTrue(filter.size() > numberOfElements * (1 - maxErrorRate));
+    }
+
+    private static boolean writersAlive(Thread[] writers) {
+        for (Thread writer : writers) if (writer.isAlive()) return true;
+        return false;
+    }
+
+    @Test
+    void testFull() {
+        ConcurrentQuotientFilter<Integer> filter = new ConcurrentQuotientFilter<>(10);
+        XorShift32 random = new XorShift32(1);
+        assertThrows(RuntimeException.class, () -> {
+            //noinspection InfiniteLoopStatement
+            while (true) filter.add(random.nextInteger());
+        });
+        assertTrue(filter.size() >= filter.capacity());
+    }
+
+    @Test
+    void testClear() {
+        ConcurrentQuotientFilter<Integer> filter = new ConcurrentQuotientFilter<>(12);
+        XorShift32 random = new XorShift32(1);
+        for (int i = 0; i < 4000; i++) filter.add(random.nextInteger());
+        filter.clear();
+        assertTrue(filter.isEmpty());
+        random = new XorShift32(1);
+        for (int i = 0; i < 4000; i++) assertFalse(filter.contains(random.nextInteger()));
+    }
+}
@@ -0,0 +1,55 @@
+package membership;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// RangeQueryCountMinSketch which can be shared between threads, counters are updated with CAS
+public class ConcurrentRangeQueryCountMinSketch extends RangeQueryCountMinSketch {
+    public ConcurrentRangeQueryCountMinSketch(int width, int depth, long minAcceptedValue, long maxAcceptedValue) {
+        this(new int[]{width}, depth, minAcceptedValue, maxAcceptedValue);
+    }
+
+    public ConcurrentRangeQueryCountMinSketch(int[] widths, int depth, long minAcceptedValue, long maxAcceptedValue) {
+        super(widths, depth, minAcceptedValue, maxAcceptedValue, AtomicCounters::new);
+    }
+
+    public ConcurrentRangeQueryCountMinSketch(double eps, double confidence, long minAcceptedValue, long maxAcceptedValue) {
+        this(widthFor(eps), depthFor(confidence), minAcceptedValue, maxAcceptedValue);
+    }
+
+    private static final class AtomicCounters implements Counters {
+        private final AtomicIntegerArray[] levels;
+
+        private AtomicCounters(int[] sizes) {
+            levels = new AtomicIntegerArray[sizes.length];
+            for (int h = 0; h < sizes.length; h++) levels[h] = new AtomicIntegerArray(sizes[h]);
+        }
+
+        @Override
+        public int size(int level) {
+            return levels[level].length();
+        }
+
+        @Override
+        public int get(int level, int index) {
+            return levels[level].get(index);
+        }
+
+        @Override
+        public void add(int level, int index, int amount) {
+            AtomicIntegerArray counters = levels[level];
+            int prev = counters.get(index), next;
+            while (prev != Integer.MAX_VALUE) {
+                next = prev >= Integer.MAX_VALUE - amount ? Integer.MAX_VALUE : prev + amount;
+                if (counters.compareAndSet(index, prev, next)) return;
+                prev = counters.get(index);
+            }
+        }
+
+        @Override
+        public void clear() {
+            for (AtomicIntegerArray level : levels) {
+                for (int i = 0; i < level.length(); i++) level.set(i, 0);
+            }
+        }
+    }
+}
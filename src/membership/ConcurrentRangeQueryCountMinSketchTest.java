@@ -0,0 +1,65 @@
+package membership;
+
+import org.junit.jupiter.api.Test;
+import prng.XorShiftN;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConcurrentRangeQueryCountMinSketchTest {
+    private static final int m = 1 << 14;
+    private static final int n = 1 << 16;
+    private static final int k = 3;
+    private static final int threads = 8;
+    private static final int rangeLog = 20;
+    private static final long minAcceptedValue = -(1 << (rangeLog - 1));
+    private static final long maxAcceptedValue = minAcceptedValue + (1 << rangeLog) - 1;
+
+    @Test
+    void testConcurrentAddMatchesSequential() {
+        RangeQueryCountMinSketch expected = new RangeQueryCountMinSketch(m, k, minAcceptedValue, maxAcceptedValue);
+        ConcurrentRangeQueryCountMinSketch actual = new ConcurrentRangeQueryCountMinSketch(m, k, minAcceptedValue, maxAcceptedValue);
+
+        for (int t = 1; t <= threads; t++) {
+            XorShiftN xorShiftN = new XorShiftN(t, rangeLog);
+            for (int i = 0; i < n; i++) expected.add(minAcceptedValue + xorShiftN.nextInteger());
+        }
+        IntStream.rangeClosed(1, threads).parallel().forEach(t -> {
+            XorShiftN xorShiftN = new XorShiftN(t, rangeLog);
+            for (int i = 0; i < n; i++) actual.add(minAcceptedValue + xorShiftN.nextInteger());
+        });
+
+        assertEquals(threads * n, actual.getCount());
+        XorShiftN xorShiftN = new XorShiftN(threads + 1, rangeLog);
+        for (int i = 0; i < n; i++) {
+            long a = minAcceptedValue + xorShiftN.nextInteger(), b = minAcceptedValue + xorShiftN.nextInteger();
+            assertEquals(expected.getCount(a), actual.getCount(a));
+            assertEquals(expected.getCount(Math.min(a, b), Math.max(a, b)), actual.getCount(Math.min(a, b), Math.max(a, b)));
+        }
+        assertEquals(expected.quantile(0.99), actual.quantile(0.99));
+    }
+
+    @Test
+    void testMergeShards() {
+        RangeQueryCountMinSketch expected = new RangeQueryCountMinSketch(m, k, minAcceptedValue, maxAcceptedValue);
+        ConcurrentRangeQueryCountMinSketch aggregator = new ConcurrentRangeQueryCountMinSketch(m, k, minAcceptedValue, maxAcceptedValue);
+
+        IntStream.rangeClosed(1, threads).parallel().forEach(t -> {
+            RangeQueryCountMinSketch shard = new RangeQueryCountMinSketch(m, k, minAcceptedValue, maxAcceptedValue);
+            XorShiftN xorShiftN = new XorShiftN(t, rangeLog);
+            for (int i = 0; i < n; i++) shard.add(minAcceptedValue + xorShiftN.nextInteger());
+            aggregator.merge(shard);
+        });
+        for (int t = 1; t <= threads; t++) {
+            XorShiftN xorShiftN = new XorShiftN(t, rangeLog);
+            for (int i = 0; i < n; i++) expected.add(minAcceptedValue + xorShiftN.nextInteger());
+        }
+
+        assertEquals(expected.getCount(), aggregator.getCount());
+        for (long value = minAcceptedValue; value <= maxAcceptedValue; value += 101) {
+            assertEquals(expected.getCount(value), aggregator.getCount(value));
+            assertEquals(expected.rank(value), aggregator.rank(value));
+        }
+    }
+}
@@ -2,52 +2,64 @@ package membership;
 
 import hash.MurmurHash3;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.BitSet;
 
 import static utils.IntegerUtils.nextPow2;
 
+// counters of a key are h1 + i * h2 with odd h2, the two halves of one 64-bit hash, they are distinct modulo a power
+// of two, so no counter is incremented twice for one key without any scratch state.
+// With minimum increase (conservative update) only the smallest counters of a key are incremented, so counts are
+// overestimated much less, but keys can't be removed, since that could decrement counters below counts of other keys
 public class CountingBloomFilter {
     private static final int MAX_CAPACITY = 1 << 30;
     private final int[] counters;
-    private final int[] hashes;
-    private final BitSet bitSet;
-    private final int mask, k;
+    private final int mask, k, seed;
+    private final boolean minimumIncrease;
 
     public CountingBloomFilter(int size, int numberOfHashFunctions) {
+        this(size, numberOfHashFunctions, false);
+    }
+
+    public CountingBloomFilter(int size, int numberOfHashFunctions, boolean minimumIncrease) {
+        this(size, numberOfHashFunctions, minimumIncrease, 0);
+    }
+
+    // filters with different seeds map a key to independent counters
+    CountingBloomFilter(int size, int numberOfHashFunctions, boolean minimumIncrease, int seed) {
         if (size > MAX_CAPACITY) throw new IllegalArgumentException("Size too large");
-        if (size < 0) throw new IllegalArgumentException("Size must be positive");
+        if (size <= 0) throw new IllegalArgumentException("Size must be positive");
         if (numberOfHashFunctions < 1) throw new IllegalArgumentException("Hash functions must be positive");
 
         int size1 = nextPow2(size);
+        if (numberOfHashFunctions > size1) throw new IllegalArgumentException("Too many hash functions for the size");
         counters = new int[size1];
-        bitSet = new BitSet(size1);
 
         this.mask = size1 - 1;
         this.k = numberOfHashFunctions;
-        this.hashes = new int[k];
+        this.seed = seed;
+        this.minimumIncrease = minimumIncrease;
     }
 
     public void add(String key) {
         if (key == null) throw new IllegalArgumentException("Key cannot be null");
-        byte[] bytes = key.getBytes();
-        for (int i = 0; i < k; i++) {
-            int hash = hash(bytes, i);
-            hashes[i] = hash;
-            if (!bitSet.get(hash)) {
-                bitSet.set(hash);
-                if (counters[hash] != Integer.MAX_VALUE) counters[hash]++;
-            }
-        }
-        for (int hash : hashes) bitSet.clear(hash);
+        addHash(hash(key), 1);
+    }
+
+    // decrements counters of the key if all of them are positive, returns false if the key is not in the filter;
+    // saturated counters are never decremented, since their real count is unknown
+    public boolean remove(String key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        if (minimumIncrease) throw new UnsupportedOperationException("Keys can't be removed with minimum increase");
+        return removeHash(hash(key));
     }
 
     public boolean contains(String key) {
         if (key == null) throw new IllegalArgumentException("Key cannot be null");
-        byte[] bytes = key.getBytes();
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
         for (int i = 0; i < k; i++) {
-            int hash = hash(bytes, i);
-            if (counters[hash] == 0) {
+            if (counters[h1 + i * h2 & mask] == 0) {
                 return false;
             }
         }
@@ -57,33 +69,77 @@ public class CountingBloomFilter {
     public boolean containsAtLeastTime(String key, int times) {
         if (key == null) throw new IllegalArgumentException("Key cannot be null");
         if (times <= 0) throw new IllegalArgumentException("Times must be positive");
-        byte[] bytes = key.getBytes();
-        for (int i = 0; i < k; i++) {
-            int hash = hash(bytes, i);
-            if (counters[hash] < times) {
-                return false;
-            }
-        }
-        return true;
+        return countHash(hash(key)) >= times;
     }
 
     public int getCount(String key) {
         if (key == null) throw new IllegalArgumentException("Key cannot be null");
-        byte[] bytes = key.getBytes();
-        int count = Integer.MAX_VALUE;
+        return countHash(hash(key));
+    }
+
+    public boolean isMinimumIncrease() {
+        return minimumIncrease;
+    }
+
+    public void clear() {
+        Arrays.fill(counters, 0);
+    }
+
+    // saturating addition of a positive amount
+    void addHash(long hash, int amount) {
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        if (minimumIncrease) {
+            // counters of the key become at least min + amount, larger ones already count more than the key
+            int target = countHash(hash);
+            target = target > Integer.MAX_VALUE - amount ? Integer.MAX_VALUE : target + amount;
+            for (int i = 0; i < k; i++) {
+                int c = h1 + i * h2 & mask;
+                if (counters[c] < target) counters[c] = target;
+            }
+            return;
+        }
+        for (int i = 0; i < k; i++) {
+            int c = h1 + i * h2 & mask;
+            counters[c] = counters[c] > Integer.MAX_VALUE - amount ? Integer.MAX_VALUE : counters[c] + amount;
+        }
+    }
+
+    boolean removeHash(long hash) {
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < k; i++) if (counters[h1 + i * h2 & mask] == 0) return false;
         for (int i = 0; i < k; i++) {
-            int hash = hash(bytes, i);
-            count = Math.min(count, counters[hash]);
+            int c = h1 + i * h2 & mask;
+            if (counters[c] != Integer.MAX_VALUE) counters[c]--;
         }
+        return true;
+    }
+
+    int countHash(long hash) {
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        int count = Integer.MAX_VALUE;
+        for (int i = 0; i < k; i++) count = Math.min(count, counters[h1 + i * h2 & mask]);
         return count;
     }
 
-    public void clear() {
-        Arrays.fill(counters, 0);
+    // true if the minimum of the counters of the key is reached by at least two of them, such keys are rarely
+    // overestimated, since a collision would have to hit both counters
+    boolean recurringMinimum(long hash) {
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        int min = Integer.MAX_VALUE, times = 0;
+        for (int i = 0; i < k; i++) {
+            int count = counters[h1 + i * h2 & mask];
+            if (count < min) {
+                min = count;
+                times = 1;
+            } else if (count == min) {
+                times++;
+            }
+        }
+        return times > 1;
     }
 
-    private int hash(byte[] s, int i) {
-        int hash = MurmurHash3.hash32xArray(s, i);
-        return hash & mask;
+    long hash(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return MurmurHash3.hash64xArray(bytes, 0, bytes.length, seed);
     }
 }
@@ -1,13 +1,13 @@
 package membership;
 
+import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
 import utils.RandomGenerator;
 
 import java.util.Random;
 
-import static org.junit.jupiter.api.Assertions.assertFalse;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 class CountingBloomFilterTest {
     private static final int m = 1 << 14;
@@ -102,4 +102,101 @@ class CountingBloomFilterTest {
         double errorRate = (double) fails / tests;
         assertTrue(errorRate <= maxErrorRateCountNonExisting);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testOneCounterPerHashFunction() {
+        // all k counters of a key are distinct even if the filter has only k of them
+        CountingBloomFilter cbf = new CountingBloomFilter(4, 4);
+        for (int i = 0; i < 10; i++) cbf.add("key" + i);
+        assertEquals(10, cbf.getCount("anything"));
+    }
+
+    @Test
+    void testRemove() {
+        CountingBloomFilter cbf = new CountingBloomFilter(16, 2);
+        cbf.add("test");
+        cbf.add("test");
+        assertTrue(cbf.remove("test"));
+        assertEquals(1, cbf.getCount("test"));
+        assertTrue(cbf.remove("test"));
+        assertFalse(cbf.contains("test"));
+        // nothing is decremented below zero
+        assertFalse(cbf.remove("test"));
+        assertEquals(0, cbf.getCount("test"));
+    }
+
+    @RepeatedTest(10)
+    void testRemoveHalf() {
+        CountingBloomFilter bf = new CountingBloomFilter(m, k);
+        long seed = new Random().nextLong();
+        RandomGenerator.setSeed(seed);
+        for (int i = 0; i < n; i++) bf.add(RandomGenerator.getRandomString(20));
+        RandomGenerator.setSeed(seed);
+        for (int i = 0; i < n; i++) {
+            String s = RandomGenerator.getRandomString(20);
+            if (i % 2 == 0) assertTrue(bf.remove(s));
+        }
+        RandomGenerator.setSeed(seed);
+        for (int i = 0; i < n; i++) {
+            String s = RandomGenerator.getRandomString(20);
+            if (i % 2 != 0) assertTrue(bf.contains(s));
+        }
+        RandomGenerator.setSeed(seed);
+        for (int i = 0; i < n; i++) {
+            String s = RandomGenerator.getRandomString(20);
+            if (i % 2 != 0) assertTrue(bf.remove(s));
+        }
+        bf.add("test");
+        assertEquals(1, bf.getCount("test"));
+    }
+
+    @Test
+    void testMinimumIncreaseOverestimatesLess() {
+        // skewed stream: key i comes about 1000 / (i + 1) times
+        int distinct = 1 << 12;
+        CountingBloomFilter plain = new CountingBloomFilter(m, k);
+        CountingBloomFilter conservative = new CountingBloomFilter(m, k, true);
+        assertTrue(conservative.isMinimumIncrease());
+        String[] keys = new String[distinct];
+        RandomGenerator.setSeed(1);
+        for (int i = 0; i < distinct; i++) keys[i] = RandomGenerator.getRandomString(20);
+        for (int round = 0; round < 1000; round++) {
+            for (int i = 0; i < distinct && round < Math.max(1000 / (i + 1), 1); i++) {
+                plain.add(keys[i]);
+                conservative.add(keys[i]);
+            }
+        }
+        long plainError = 0, conservativeError = 0;
+        for (int i = 0; i < distinct; i++) {
+            int count = Math.max(1000 / (i + 1), 1);
+            // counts are never underestimated
+            assertTrue(conservative.getCount(keys[i]) >= count);
+            assertTrue(conservative.getCount(keys[i]) <= plain.getCount(keys[i]));
+            plainError += plain.getCount(keys[i]) - count;
+            conservativeError += conservative.getCount(keys[i]) - count;
+        }
+        assertTrue(conservativeError * 2 < plainError);
+        assertThrows(UnsupportedOperationException.class, () -> conservative.remove(keys[0]));
+    }
+
+    @Test
+    @Disabled
+    void testThroughput() {
+        int size = 1 << 24, keys = 1 << 21;
+        String[] strings = new String[keys];
+        RandomGenerator.setSeed(1);
+        for (int i = 0; i < keys; i++) strings[i] = RandomGenerator.getRandomString(20);
+        for (int hashes : new int[]{3, 7}) {
+            for (int round = 0; round < 3; round++) {
+                CountingBloomFilter cbf = new CountingBloomFilter(size, hashes);
+                long start = System.nanoTime();
+                for (String s : strings) cbf.add(s);
+                long add = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (String s : strings) cbf.remove(s);
+                long remove = System.nanoTime() - start;
+                System.out.printf("k = %d: add %.1f ns, remove %.1f ns%n", hashes, (double) add / keys, (double) remove / keys);
+            }
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package membership;
+
+import utils.BitPackedArray;
+
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+
+import static membership.RankSelectQuotientFilter.clearBit;
+import static membership.RankSelectQuotientFilter.getBit;
+import static membership.RankSelectQuotientFilter.setBit;
+
+// Counting quotient filter: rank-and-select quotient filter where every remainder may be followed by counter slots,
+// so a key takes one slot plus ceil(log2(count) / remainderBits) slots for its count. Every slot keeps one extra
+// bit which tells remainders from counter digits, counter digits keep count - 1 little-endian.
+public class CountingQuotientFilter<K> {
+    private static final int MAX_BITS = 40;
+    private static final int MAX_REMAINDER_BITS = 60;
+    private static final int HASH_BITS = 64;
+    private static final int DEFAULT_REMAINDER_BITS = 8;
+    private static final int BLOCK_BITS = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final long counterBit = 1;
+
+    private final long[] occupieds, runends;
+    private final long[] offsets; // number of the first slots of the block used by runs of previous blocks
+    private final BitPackedArray t;
+    private final ToLongFunction<? super K> hasher;
+    private final int bitsR;
+    private final long maskQ, maskR, slots;
+    private long size, totalCount, usedSlots;
+
+    public CountingQuotientFilter(int bits) {
+        this(bits, DEFAULT_REMAINDER_BITS);
+    }
+
+    public CountingQuotientFilter(int bits, int remainderBits) {
+        this(bits, remainderBits, QuotientFilter.DEFAULT_HASHER);
+    }
+
+    // hasher must spread keys over all 64 bits, the lowest remainderBits of the hash are the remainder
+    public CountingQuotientFilter(int bits, int remainderBits, ToLongFunction<? super K> hasher) {
+        if (hasher == null) throw new IllegalArgumentException("Hasher must not be null");
+        if (bits < 0) throw new IllegalArgumentException("Bits must be positive");
+        if (bits > MAX_BITS) throw new IllegalArgumentException("Too many bits");
+        if (remainderBits <= 0 || remainderBits > MAX_REMAINDER_BITS)
+            throw new IllegalArgumentException("Remainder bits must be in [1, " + MAX_REMAINDER_BITS + "]");
+        if (bits + remainderBits > HASH_BITS)
+            throw new IllegalArgumentException("Quotient and remainder must fit into " + HASH_BITS + " bits");
+
+        long quotients = 1L << bits;
+        long extra = 10 * (long) Math.ceil(Math.sqrt(quotients)) + BLOCK_SIZE;
+        long blocks = (quotients + extra + BLOCK_SIZE - 1) >>> BLOCK_BITS;
+        if (blocks > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many bits");
+
+        this.hasher = hasher;
+        this.bitsR = remainderBits;
+        this.maskQ = quotients - 1;
+        this.maskR = (1L << remainderBits) - 1;
+        this.slots = blocks << BLOCK_BITS;
+        this.occupieds = new long[(int) blocks];
+        this.runends = new long[(int) blocks];
+        this.offsets = new long[(int) blocks];
+        this.t = new BitPackedArray(slots, remainderBits + 1);
+    }
+
+    public void add(K key) {
+        addCountHash(hasher.applyAsLong(key), 1);
+    }
+
+    public void add(long key) {
+        addCountHash(QuotientFilter.hashLong(hasher, key), 1);
+    }
+
+    // returns the new count of the key, counts saturate at Long.MAX_VALUE
+    public long addCount(K key, long count) {
+        return addCountHash(hasher.applyAsLong(key), count);
+    }
+
+    public long addCount(long key, long count) {
+        return addCountHash(QuotientFilter.hashLong(hasher, key), count);
+    }
+
+    public long count(K key) {
+        return countHash(hasher.applyAsLong(key));
+    }
+
+    public long count(long key) {
+        return countHash(QuotientFilter.hashLong(hasher, key));
+    }
+
+    public boolean contains(K key) {
+        return countHash(hasher.applyAsLong(key)) != 0;
+    }
+
+    public boolean contains(long key) {
+        return countHash(QuotientFilter.hashLong(hasher, key)) != 0;
+    }
+
+    // removes one occurrence of the key, returns false if the key wasn't found
+    public boolean remove(K key) {
+        return removeHash(hasher.applyAsLong(key));
+    }
+
+    public boolean remove(long key) {
+        return removeHash(QuotientFilter.hashLong(hasher, key));
+    }
+
+    public long countHash(long hash) {
+        long fq = getQuotient(hash);
+        long fr = getRemainder(hash);
+        if (!isOccupied(fq)) return 0;
+
+        // runs are sorted by remainder, so we can stop at the first greater one
+        long end = runEnd(fq);
+        for (long s = runStart(fq); s <= end; ) {
+            long r = t.get(s) >>> 1;
+            if (r > fr) return 0;
+            long e = entryEnd(s, end);
+            if (r == fr) return decodeCount(s, e);
+            s = e + 1;
+        }
+        return 0;
+    }
+
+    public long addCountHash(long hash, long count) {
+        if (count < 0) throw new IllegalArgumentException("Count must be non-negative");
+        long fq = getQuotient(hash);
+        long fr = getRemainder(hash);
+        if (count == 0) return countHash(hash);
+
+        if (!isOccupied(fq)) {
+            // new run goes right after the runs of previous quotients, but not before its canonical slot
+            long p = Math.max(fq, runEnd(fq) + 1);
+            insertSlot(fq, p, fr << 1, false, true);
+            writeCount(fq, p, p, count, true);
+            size++;
+            totalCount = saturatedAdd(totalCount, count);
+            return count;
+        }
+
+        long end = runEnd(fq), s = runStart(fq);
+        while (s <= end) {
+            long r = t.get(s) >>> 1;
+            if (r > fr) break;
+            long e = entryEnd(s, end);
+            if (r == fr) {
+                long newCount = saturatedAdd(decodeCount(s, e), count);
+                writeCount(fq, s, e, newCount, e == end);
+                totalCount = saturatedAdd(totalCount, count);
+                return newCount;
+            }
+            s = e + 1;
+        }
+
+        // insert the remainder in sorted position of the run
+        boolean atEnd = s > end;
+        insertSlot(fq, s, fr << 1, true, atEnd);
+        writeCount(fq, s, s, count, atEnd);
+        size++;
+        totalCount = saturatedAdd(totalCount, count);
+        return count;
+    }
+
+    public boolean removeHash(long hash) {
+        long fq = getQuotient(hash);
+        long fr = getRemainder(hash);
+        if (!isOccupied(fq)) return false;
+
+        long end = runEnd(fq);
+        for (long s = runStart(fq); s <= end; ) {
+            long r = t.get(s) >>> 1;
+            if (r > fr) return false;
+            long e = entryEnd(s, end);
+            if (r == fr) {
+                long count = decodeCount(s, e);
+                if (count == 1) {
+                    for (long i = e; i >= s; i--) deleteSlot(fq, i);
+                    size--;
+                } else {
+                    writeCount(fq, s, e, count - 1, e == end);
+                }
+                if (totalCount != Long.MAX_VALUE) totalCount--;
+                return true;
+            }
+            s = e + 1;
+        }
+        return false;
+    }
+
+    // number of distinct keys (up to false positives)
+    public long size() {
+        return size;
+    }
+
+    // sum of counts of all keys
+    public long totalCount() {
+        return totalCount;
+    }
+
+    // slots taken by remainders and counters
+    public long usedSlots() {
+        return usedSlots;
+    }
+
+    public long capacity() {
+        return maskQ + 1;
+    }
+
+    public int remainderBits() {
+        return bitsR;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(occupieds, 0);
+        Arrays.fill(runends, 0);
+        Arrays.fill(offsets, 0);
+        t.clear();
+        size = 0;
+        totalCount = 0;
+        usedSlots = 0;
+    }
+
+    // last slot of the entry starting at s: counter digits follow the remainder up to the end of the run
+    private long entryEnd(long s, long runEnd) {
+        while (s < runEnd && (t.get(s + 1) & counterBit) != 0) s++;
+        return s;
+    }
+
+    private long decodeCount(long s, long e) {
+        long value = 0;
+        for (long i = e; i > s; i--) value = value << bitsR | t.get(i) >>> 1;
+        return value + 1;
+    }
+
+    private int counterSlots(long count) {
+        return (HASH_BITS - Long.numberOfLeadingZeros(count - 1) + bitsR - 1) / bitsR;
+    }
+
+    // rewrites counter digits of the entry [s, e] of the run of fq, growing or shrinking it to fit the count
+    private void writeCount(long fq, long s, long e, long count, boolean atEnd) {
+        long need = counterSlots(count), have = e - s;
+        for (; have < need; have++) insertSlot(fq, s + have + 1, counterBit, true, atEnd);
+        for (; have > need; have--) deleteSlot(fq, s + have);
+        long value = count - 1;
+        for (long i = s + 1; i <= s + need; i++) {
+            t.set(i, (value & maskR) << 1 | counterBit);
+            value >>>= bitsR;
+        }
+    }
+
+    // puts value into slot p of the run of fq (or right after its end) shifting the following slots of the cluster
+    private void insertSlot(long fq, long p, long value, boolean runExists, boolean atEnd) {
+        long empty = findFirstEmptySlot(p);
+        if (empty >= slots) throw new RuntimeException("CountingQuotientFilter is full");
+
+        for (long s = empty; s > p; s--) {
+            t.set(s, t.get(s - 1));
+            if (getBit(runends, s - 1)) setBit(runends, s);
+            else clearBit(runends, s);
+        }
+        t.set(p, value);
+        if (atEnd) {
+            // the new slot ends the run, if the run already existed its previous end is not the end anymore
+            if (runExists) clearBit(runends, p - 1);
+            setBit(runends, p);
+        } else {
+            clearBit(runends, p);
+        }
+        setBit(occupieds, fq);
+
+        // one more slot of every block up to the empty one is used by runs of previous blocks
+        for (long b = (fq >>> BLOCK_BITS) + 1; b <= empty >>> BLOCK_BITS; b++) offsets[(int) b]++;
+        usedSlots++;
+    }
+
+    // removes slot p of the run of fq, the following shifted slots of the cluster move back by one
+    private void deleteSlot(long fq, long p) {
+        boolean end = getBit(runends, p), last = end && runStart(fq) == p;
+
+        // the last slot to move: runs which start in their canonical slots stay in place
+        long s = p + 1;
+        while (s < slots) {
+            long e = runEnd(s - 1);
+            if (e < s) break;
+            s = e + 1;
+        }
+        long vacated = s - 1;
+
+        for (long i = p; i < vacated; i++) {
+            t.set(i, t.get(i + 1));
+            if (getBit(runends, i + 1)) setBit(runends, i);
+            else clearBit(runends, i);
+        }
+        t.set(vacated, 0);
+        clearBit(runends, vacated);
+        if (last) clearBit(occupieds, fq);
+        else if (end) setBit(runends, p - 1);
+
+        for (long b = (fq >>> BLOCK_BITS) + 1; b <= vacated >>> BLOCK_BITS; b++) offsets[(int) b]--;
+        usedSlots--;
+    }
+
+    private boolean isOccupied(long q) {
+        return getBit(occupieds, q);
+    }
+
+    private long runStart(long q) {
+        return q == 0 ? 0 : Math.max(q, runEnd(q - 1) + 1);
+    }
+
+    private long runEnd(long x) {
+        return RankSelectQuotientFilter.runEnd(occupieds, runends, offsets, x);
+    }
+
+    private long findFirstEmptySlot(long from) {
+        return RankSelectQuotientFilter.findFirstEmptySlot(occupieds, runends, offsets, slots, from);
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    // the lowest bitsR bits are the remainder, the next bits are the quotient
+    private long getQuotient(long hash) {
+        return hash >>> bitsR & maskQ;
+    }
+
+    private long getRemainder(long hash) {
+        return hash & maskR;
+    }
+}
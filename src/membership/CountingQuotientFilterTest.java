@@ -0,0 +1,167 @@
+package membership;
+
+import org.junit.jupiter.api.Test;
+import prng.XorShift32;
+import prng.XorShift64;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountingQuotientFilterTest {
+    private static final int numberOfTests = 200;
+    private static final int bitsForFilter = 12;
+    private static final int capacity = 1 << bitsForFilter;
+    private static final int numberOfElements = (int) (capacity * 0.9);
+    private static final double maxErrorRate = 0.01;
+
+    @Test
+    void testCountsMatchExactCounts() {
+        // identity hasher over quotient and remainder bits, so there are no false positives
+        int bits = 10, remainderBits = 6;
+        long mask = (1L << (bits + remainderBits)) - 1;
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            CountingQuotientFilter<Long> filter = new CountingQuotientFilter<>(bits, remainderBits, key -> key);
+            Map<Long, Long> counts = new HashMap<>();
+            XorShift64 random = new XorShift64(t);
+            for (int i = 0; i < 20_000; i++) {
+                long key = random.nextLong() & mask;
+                int op = (int) ((random.nextLong() >>> 1) % 10);
+                long expected = counts.getOrDefault(key, 0L);
+                if (op < 5) {
+                    filter.add(Long.valueOf(key));
+                    counts.put(key, expected + 1);
+                } else if (op < 7) {
+                    long delta = (random.nextLong() >>> 1) % (1L << (random.nextLong() >>> 1) % 24);
+                    assertEquals(expected + delta, filter.addCount(Long.valueOf(key), delta));
+                    if (expected + delta > 0) counts.put(key, expected + delta);
+                } else {
+                    assertEquals(expected > 0, filter.remove(Long.valueOf(key)));
+                    if (expected > 1) counts.put(key, expected - 1);
+                    else counts.remove(key);
+                }
+                if (filter.usedSlots() > (1 << bits) * 0.9) {
+                    // keep the filter from overflowing
+                    filter.clear();
+                    counts.clear();
+                }
+            }
+            assertEquals(counts.size(), filter.size());
+            for (Map.Entry<Long, Long> entry : counts.entrySet())
+                assertEquals(entry.getValue(), filter.count(entry.getKey()));
+            for (long key = 0; key <= mask; key += 7)
+                assertEquals(counts.getOrDefault(key, 0L), filter.count(Long.valueOf(key)));
+        });
+    }
+
+    @Test
+    void testContainsAlreadyExisting() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            CountingQuotientFilter<Integer> filter = new CountingQuotientFilter<>(bitsForFilter);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) {
+                int key = random.nextInteger();
+                assertTrue(filter.contains(key));
+                assertTrue(filter.count(key) >= 1);
+            }
+        });
+    }
+
+    @Test
+    void testErrorRateForContainsNonExisting() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            CountingQuotientFilter<Integer> filter = new CountingQuotientFilter<>(bitsForFilter);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            int fails = 0;
+            for (int i = numberOfElements; i < numberOfElements * 2; i++)
+                if (filter.contains(random.nextInteger())) fails++;
+            assertTrue(fails < numberOfElements * maxErrorRate);
+        });
+    }
+
+    @Test
+    void testRemoveAll() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            CountingQuotientFilter<Integer> filter = new CountingQuotientFilter<>(bitsForFilter);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements / 2; i++) filter.addCount(random.nextInteger(), 1 + (i & 3));
+            random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements / 2; i++) {
+                int key = random.nextInteger();
+                for (int c = 1 + (i & 3); c > 0; c--) assertTrue(filter.remove(key));
+            }
+            assertTrue(filter.isEmpty());
+            assertEquals(0, filter.usedSlots());
+            assertEquals(0, filter.totalCount());
+        });
+    }
+
+    @Test
+    void testSkewedCountsTakeFewSlots() {
+        CountingQuotientFilter<Integer> filter = new CountingQuotientFilter<>(bitsForFilter);
+        for (int key = 0; key < 100; key++) filter.addCount(key, 1_000_000_000L);
+        for (int key = 100; key < 1000; key++) filter.add(key);
+        for (int key = 0; key < 100; key++) assertEquals(1_000_000_000L, filter.count(key));
+        assertEquals(1000, filter.size());
+        assertEquals(100_000_000_900L, filter.totalCount());
+        // 30 bits of count take 4 counter slots of 8 bits
+        assertEquals(1000 + 100 * 4, filter.usedSlots());
+    }
+
+    @Test
+    void testPrimitiveKeysUseCustomHasher() {
+        CountingQuotientFilter<Long> filter = new CountingQuotientFilter<>(10, 8, key -> key);
+        for (long key = 0; key < 500; key++) {
+            filter.add(Long.valueOf(key));
+            assertEquals(key + 1, filter.addCount(key, key));
+        }
+        for (long key = 0; key < 500; key++) {
+            assertTrue(filter.contains(key));
+            assertEquals(key + 1, filter.count(key));
+            assertEquals(key + 1, filter.count(Long.valueOf(key)));
+        }
+        assertEquals(0, filter.count(500L));
+        assertTrue(filter.remove(0L));
+        assertFalse(filter.contains(Long.valueOf(0)));
+    }
+
+    @Test
+    void testSaturation() {
+        CountingQuotientFilter<Integer> filter = new CountingQuotientFilter<>(bitsForFilter, 3);
+        filter.addCount(1, Long.MAX_VALUE - 1);
+        assertEquals(Long.MAX_VALUE, filter.addCount(1, 5));
+        assertEquals(Long.MAX_VALUE, filter.count(1));
+        assertEquals(1 + 21, filter.usedSlots());
+        assertTrue(filter.remove(1));
+        assertEquals(Long.MAX_VALUE - 1, filter.count(1));
+        assertThrows(IllegalArgumentException.class, () -> filter.addCount(1, -1));
+    }
+
+    @Test
+    void testFull() {
+        CountingQuotientFilter<Integer> filter = new CountingQuotientFilter<>(bitsForFilter);
+        XorShift32 random = new XorShift32(1);
+        assertThrows(RuntimeException.class, () -> {
+            //noinspection InfiniteLoopStatement
+            while (true) filter.add(random.nextInteger());
+        });
+        assertTrue(filter.usedSlots() > capacity);
+    }
+
+    @Test
+    void testClear() {
+        CountingQuotientFilter<Integer> filter = new CountingQuotientFilter<>(bitsForFilter);
+        XorShift32 random = new XorShift32(1);
+        for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+        filter.clear();
+        assertTrue(filter.isEmpty());
+        assertEquals(0, filter.usedSlots());
+        random = new XorShift32(1);
+        for (int i = 0; i < numberOfElements; i++) assertFalse(filter.contains(random.nextInteger()));
+    }
+}
@@ -3,152 +3,323 @@ package membership;
 
 import hash.MurmurHash3;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Random;
 
+import static java.nio.file.StandardOpenOption.*;
 import static utils.IntegerUtils.nextPow2;
 
 
+// file layout: header (magic, version, capacity, bucket size, fingerprint bits, seed, size, number of words),
+// then words of the table, all little-endian
 public class CuckooFilter {
+    private static final int MAGIC = 0x434B4F46; // "FOKC" in the little-endian file
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
     private static final int MAX_CAPACITY = 1 << 30;
-    private static final int DEFAULT_CAPACITY = 1 << 4; // 16
-    private static final int NUMBER_OF_FINGERPRINTS_IN_NODE = 8;
-    private static final int NUMBER_OF_BITS_IN_FINGERPRINT = 8;
-    private static final int MASK_FOR_FINGERPRINT = (1 << NUMBER_OF_BITS_IN_FINGERPRINT) - 1;
-    private static final int MAX_LOOP = 20;
-    private final int mask, seedForHash, seedForFingerprint;
+    static final int DEFAULT_CAPACITY = 1 << 4; // 16
+    static final int DEFAULT_BUCKET_SIZE = 8;
+    static final int DEFAULT_FINGERPRINT_BITS = 8;
+    // eviction paths are searched breadth-first among at most MAX_NODES buckets up to MAX_PATH buckets long
+    private static final int MAX_PATH = 8;
+    private static final int MAX_NODES = 1 << 12;
+    // results of addHash
+    static final int ADDED = 0, PRESENT = 1, FULL = 2;
+    final int mask;
+    private final int seed;
+    private final int bucketSize, fingerprintBits;
+    private final long fingerprintMask;
     private long size;
 
-    // each node contains up to 8 element fingerprints, elements' fingerprints are 8 bits
-    private final long[] table;
+    // fingerprints of bucket i are slots [i * bucketSize, (i + 1) * bucketSize) of the bit stream, fingerprints are
+    // never 0, so 0 is an empty slot; bucket is matched by chunks of lanes which fit into a long:
+    // ones and top bits of lanes of every chunk
+    private final Words table;
+    private final int lanes;
+    private final long[] chunkOnes, chunkHighs;
 
-    // used to identify that node has element with fingerprint 0
-    private final BitSet bitset;
+    private EvictionPath path; // allocated when buckets get full
 
     public CuckooFilter() {
         this(DEFAULT_CAPACITY);
     }
 
+    // each node contains up to 8 element fingerprints, elements' fingerprints are 8 bits
     public CuckooFilter(int capacity) {
+        this(capacity, DEFAULT_FINGERPRINT_BITS, DEFAULT_BUCKET_SIZE);
+    }
+
+    // false-positive probability is about 2 * bucketSize * load factor / 2^fingerprintBits
+    public CuckooFilter(int capacity, int fingerprintBits, int bucketSize) {
+        this(capacity, fingerprintBits, bucketSize, randomSeed());
+    }
+
+    // filters with the same parameters and seed put keys into the same slots, so they can be shared and persisted
+    public CuckooFilter(int capacity, int fingerprintBits, int bucketSize, int seed) {
+        this(capacity, fingerprintBits, bucketSize, seed, null);
+    }
+
+    private CuckooFilter(int capacity, int fingerprintBits, int bucketSize, int seed, Words table) {
         if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
         if (capacity > MAX_CAPACITY) throw new IllegalArgumentException("Capacity must be less than " + MAX_CAPACITY);
+        if (fingerprintBits != 8 && fingerprintBits != 12 && fingerprintBits != 16 && fingerprintBits != 32)
+            throw new IllegalArgumentException("Fingerprint must have 8, 12, 16 or 32 bits");
+        if (bucketSize != 2 && bucketSize != 4 && bucketSize != 8)
+            throw new IllegalArgumentException("Bucket size must be 2, 4 or 8");
         capacity = nextPow2(capacity);
+        long words = ((long) capacity * bucketSize * fingerprintBits + 63) >>> 6;
+        if (words > Integer.MAX_VALUE - 1) throw new IllegalArgumentException("Capacity is too large for the bucket");
         this.mask = capacity - 1;
         this.size = 0;
-        this.table = new long[capacity];
-        this.bitset = new BitSet(capacity);
+        this.bucketSize = bucketSize;
+        this.fingerprintBits = fingerprintBits;
+        this.fingerprintMask = (1L << fingerprintBits) - 1;
+        // one more word, so a chunk can always be read as two words
+        if (table == null) table = new HeapWords((int) words + 1);
+        else if (table.length() != words + 1) throw new IllegalArgumentException("Corrupted file");
+        this.table = table;
+
+        this.lanes = 64 / fingerprintBits;
+        int chunks = (bucketSize + lanes - 1) / lanes;
+        this.chunkOnes = new long[chunks];
+        this.chunkHighs = new long[chunks];
+        for (int i = 0; i < bucketSize; i++) chunkOnes[i / lanes] |= 1L << (i % lanes * fingerprintBits);
+        for (int c = 0; c < chunks; c++) chunkHighs[c] = chunkOnes[c] << (fingerprintBits - 1);
+        this.seed = seed;
+    }
 
+    static int randomSeed() {
         Random random = new Random();
-        int seed1 = 0, seed2 = 0;
-        while (seed1 == 0) seed1 = random.nextInt();
-        while (seed2 == 0 || seed2 == seed1) seed2 = random.nextInt();
+        int seed = 0;
+        while (seed == 0) seed = random.nextInt();
+        return seed;
+    }
+
+    // reads a filter written by snapshot into the heap
+    public static CuckooFilter restore(Path file) throws IOException {
+        return open(file, false);
+    }
 
-        this.seedForHash = seed1;
-        this.seedForFingerprint = seed2;
+    // maps a filter written by snapshot read-only, so processes which map the same file share its pages,
+    // add and remove of a new key throw UnsupportedOperationException
+    public static CuckooFilter map(Path file) throws IOException {
+        return open(file, true);
+    }
+
+    private static CuckooFilter open(Path file, boolean mapped) throws IOException {
+        if (file == null) throw new IllegalArgumentException("File must not be null");
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+            while (header.hasRemaining()) if (channel.read(header) < 0) break;
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+                throw new IllegalArgumentException("File doesn't contain a cuckoo filter");
+            if (header.getInt() != VERSION) throw new IllegalArgumentException("Unsupported version");
+            int capacity = header.getInt();
+            int bucketSize = header.getInt();
+            int fingerprintBits = header.getInt();
+            int seed = header.getInt();
+            long size = header.getLong();
+            long words = header.getLong();
+            if (words <= 0 || words > Integer.MAX_VALUE || channel.size() != HEADER_SIZE + 8 * words)
+                throw new IllegalArgumentException("Corrupted file");
+
+            CuckooFilter filter;
+            if (mapped) {
+                filter = new CuckooFilter(capacity, fingerprintBits, bucketSize, seed, new MappedWords(channel, (int) words));
+            } else {
+                filter = new CuckooFilter(capacity, fingerprintBits, bucketSize, seed, null);
+                HeapWords heap = (HeapWords) filter.table;
+                if (heap.words.length != words) throw new IllegalArgumentException("Corrupted file");
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ORDER);
+                for (int i = 0; i < words; ) {
+                    buffer.clear();
+                    while (buffer.hasRemaining()) if (channel.read(buffer) < 0) break;
+                    buffer.flip();
+                    while (buffer.remaining() >= 8) heap.words[i++] = buffer.getLong();
+                }
+            }
+            if (capacity != filter.mask + 1) throw new IllegalArgumentException("Corrupted file");
+            filter.size = size;
+            return filter;
+        }
+    }
+
+    // not thread-safe, writers must be stopped while a filter which is shared between threads is written
+    public void snapshot(Path file) throws IOException {
+        if (file == null) throw new IllegalArgumentException("File must not be null");
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ORDER);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            buffer.putInt(mask + 1).putInt(bucketSize).putInt(fingerprintBits).putInt(seed);
+            buffer.putLong(size()).putLong(table.length());
+            for (int i = 0; i < table.length(); i++) {
+                if (!buffer.hasRemaining()) write(channel, buffer);
+                buffer.putLong(table.get(i));
+            }
+            write(channel, buffer);
+            channel.force(true);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
     }
 
     public long size() {
         return size;
     }
 
+    public int bucketSize() {
+        return bucketSize;
+    }
+
+    public int fingerprintBits() {
+        return fingerprintBits;
+    }
+
     public boolean contains(String key) {
         if (key == null) throw new IllegalArgumentException("Key must not be null");
-        byte[] arr = key.getBytes();
-        int fingerprint = fingerprint(arr);
-        int hash1 = hash(arr);
+        return containsHash(hash(key));
+    }
+
+    boolean containsHash(long hash) {
+        long fingerprint = fingerprint(hash);
+        int hash1 = (int) hash & mask;
         int hash2 = hash1 ^ hashFingerprint(fingerprint);
-        if (fingerprint == 0) return bitset.get(hash1);
-        return contains(table[hash1], fingerprint) || contains(table[hash2], fingerprint);
+        // both buckets are probed without branches
+        return (probe(hash1, fingerprint) | probe(hash2, fingerprint)) != 0;
     }
 
-    private static boolean contains(long val, int fingerprint) {
-        for (int i = 0; i < NUMBER_OF_FINGERPRINTS_IN_NODE; i++) {
-            if ((val & MASK_FOR_FINGERPRINT) == fingerprint) return true;
-            val >>>= NUMBER_OF_BITS_IN_FINGERPRINT;
+    // non-zero if the bucket has the fingerprint: XOR turns equal lanes into zero lanes, and
+    // (y - ones) & ~y & highs is non-zero if y has a zero lane, though it may flag lanes above the first zero one
+    long probe(int bucket, long fingerprint) {
+        long y = chunk(bucket, 0) ^ fingerprint * chunkOnes[0];
+        long found = (y - chunkOnes[0]) & ~y & chunkHighs[0];
+        for (int c = 1; c < chunkOnes.length; c++) {
+            y = chunk(bucket, c) ^ fingerprint * chunkOnes[c];
+            found |= (y - chunkOnes[c]) & ~y & chunkHighs[c];
         }
-        return false;
+        return found;
     }
 
     public boolean add(String key) {
         if (key == null) throw new IllegalArgumentException("Key must not be null");
-        if (contains(key)) return false;
-        size++;
-        byte[] arr = key.getBytes();
-        int hash1 = hash(arr);
-        int fingerprint = fingerprint(arr);
-        int hash2 = hash1 ^ hashFingerprint(fingerprint);
+        int result = addHash(hash(key));
+        if (result == FULL) throw new RuntimeException("Could not add key " + key + " to CuckooFilter");
+        return result == ADDED;
+    }
 
-        if (fingerprint == 0) {
-            bitset.set(hash1);
-            return true;
-        }
+    int addHash(long hash) {
+        long fingerprint = fingerprint(hash);
+        int hash1 = (int) hash & mask;
+        int hash2 = hash1 ^ hashFingerprint(fingerprint);
+        if ((probe(hash1, fingerprint) | probe(hash2, fingerprint)) != 0) return PRESENT;
 
-        int n1 = count(table[hash1]);
-        int n2 = count(table[hash2]);
+        int n1 = count(hash1);
+        int n2 = count(hash2);
 
-        if (n1 <= n2 && n1 < NUMBER_OF_FINGERPRINTS_IN_NODE) {
-            table[hash1] = table[hash1] << NUMBER_OF_BITS_IN_FINGERPRINT | fingerprint;
-            return true;
+        if (n1 <= n2 && n1 < bucketSize) {
+            set(hash1, emptySlot(hash1), fingerprint);
         } else if (n2 < n1) {
-            table[hash2] = table[hash2] << NUMBER_OF_BITS_IN_FINGERPRINT | fingerprint;
-            return true;
+            set(hash2, emptySlot(hash2), fingerprint);
+        } else if (!addWithEvictions(hash1, hash2, fingerprint)) {
+            return FULL;
         }
+        size++;
+        return ADDED;
+    }
 
-        int loop = 0, tmpFingerprint;
-        while (loop < MAX_LOOP) {
-            loop++;
-            //get last fingerprint in t1
-            tmpFingerprint = (int) (table[hash1] >>> (64 - NUMBER_OF_BITS_IN_FINGERPRINT) & MASK_FOR_FINGERPRINT);
-            table[hash1] = table[hash1] << NUMBER_OF_BITS_IN_FINGERPRINT | fingerprint;
-            if (tmpFingerprint == 0) return true;
+    // both buckets are full: fingerprints are moved along the shortest eviction path from its end,
+    // so nothing is changed if there is no such path
+    private boolean addWithEvictions(int hash1, int hash2, long fingerprint) {
+        if (path == null) path = new EvictionPath();
+        if (!findEvictionPath(hash1, hash2, path)) return false;
+        int slot = path.slot;
+        set(path.alternate, emptySlot(path.alternate), get(path.buckets[path.node], slot));
+        // every fingerprint of the path moves into the slot freed by the next one
+        for (int n = path.node; n >= 0; n = path.parents[n]) {
+            int parent = path.parents[n];
+            set(path.buckets[n], slot, parent < 0 ? fingerprint : get(path.buckets[parent], path.slots[n]));
+            slot = path.slots[n];
+        }
+        return true;
+    }
 
-            fingerprint = tmpFingerprint;
-            hash2 = hash1 ^ hashFingerprint(fingerprint);
+    // queue of the breadth-first search of eviction paths, node of the path end, its slot whose fingerprint
+    // moves into an empty slot of the alternate bucket
+    static final class EvictionPath {
+        final int[] buckets = new int[MAX_NODES], parents = new int[MAX_NODES];
+        final int[] slots = new int[MAX_NODES], depths = new int[MAX_NODES];
+        int node, slot, alternate;
+
+        private int enqueue(int tail, int bucket, int parent, int slot, int depth) {
+            buckets[tail] = bucket;
+            parents[tail] = parent;
+            slots[tail] = slot;
+            depths[tail] = depth;
+            return tail + 1;
+        }
 
-            tmpFingerprint = (int) (table[hash2] >>> (64 - NUMBER_OF_BITS_IN_FINGERPRINT) & MASK_FOR_FINGERPRINT);
-            table[hash2] = table[hash2] << NUMBER_OF_BITS_IN_FINGERPRINT | fingerprint;
-            if (tmpFingerprint == 0) return true;
+        private boolean onPath(int node, int bucket) {
+            for (; node >= 0; node = parents[node]) if (buckets[node] == bucket) return true;
+            return false;
+        }
+    }
 
-            fingerprint = tmpFingerprint;
-            hash1 = hash2 ^ hashFingerprint(fingerprint);
+    // breadth-first search for the shortest path of evictions which ends in a bucket with an empty slot
+    boolean findEvictionPath(int hash1, int hash2, EvictionPath path) {
+        int head = 0, tail = 0;
+        tail = path.enqueue(tail, hash1, -1, -1, 0);
+        if (hash2 != hash1) tail = path.enqueue(tail, hash2, -1, -1, 0);
+
+        while (head < tail) {
+            int node = head++, bucket = path.buckets[node];
+            for (int slot = 0; slot < bucketSize; slot++) {
+                int alternate = bucket ^ hashFingerprint(get(bucket, slot));
+                if (emptySlot(alternate) >= 0) {
+                    path.node = node;
+                    path.slot = slot;
+                    path.alternate = alternate;
+                    return true;
+                }
+                // buckets of a path must be distinct, so moves along it don't overwrite each other
+                int depth = path.depths[node] + 1;
+                if (depth < MAX_PATH && tail < MAX_NODES && !path.onPath(node, alternate))
+                    tail = path.enqueue(tail, alternate, node, slot, depth);
+            }
         }
-        throw new RuntimeException("Could not add key " + key + " to CuckooFilter");
+        return false;
     }
 
     public boolean remove(String key) {
         if (key == null) throw new IllegalArgumentException("Key must not be null");
-        byte[] arr = key.getBytes();
-        int hash1 = hash(arr);
-        int fingerprint = fingerprint(arr);
-        int hash2 = hash1 ^ hashFingerprint(fingerprint);
-
-        if (fingerprint == 0) {
-            if (bitset.get(hash1)) {
-                bitset.clear(hash1);
-                size--;
-                return true;
-            }
-            return false;
-        }
+        return removeHash(hash(key));
+    }
 
-        return remove(hash1, fingerprint) || remove(hash2, fingerprint);
+    boolean removeHash(long hash) {
+        long fingerprint = fingerprint(hash);
+        int hash1 = (int) hash & mask;
+        int hash2 = hash1 ^ hashFingerprint(fingerprint);
+        if (!remove(hash1, fingerprint) && !remove(hash2, fingerprint)) return false;
+        size--;
+        return true;
     }
 
-    public boolean remove(int hash, int fingerprint) {
-        long val = table[hash];
-        if (val == 0) return false;
-        int n = count(val);
-        for (int i = 0; i < n; i++) {
-            if ((val >>> (NUMBER_OF_FINGERPRINTS_IN_NODE * i) & MASK_FOR_FINGERPRINT) == fingerprint) {
-                size--;
-                if (i == 0) table[hash] = val >>> NUMBER_OF_BITS_IN_FINGERPRINT;
-                else if (i == 7) table[hash] = val & 0x00FFFFFFFFFFFFFFL;
-                else {
-                    long lo = val << (NUMBER_OF_BITS_IN_FINGERPRINT * (8 - i)) >>> (NUMBER_OF_BITS_IN_FINGERPRINT * (8 - i));
-                    long hi = val >>> (NUMBER_OF_BITS_IN_FINGERPRINT * (i + 1)) << (NUMBER_OF_BITS_IN_FINGERPRINT * i);
-                    table[hash] = lo | hi;
-                }
+    boolean remove(int bucket, long fingerprint) {
+        for (int c = 0; c < chunkOnes.length; c++) {
+            long found = matches(chunk(bucket, c) ^ fingerprint * chunkOnes[c], c);
+            if (found != 0) {
+                set(bucket, c * lanes + Long.numberOfTrailingZeros(found) / fingerprintBits, 0);
                 return true;
             }
         }
@@ -156,32 +327,149 @@ public class CuckooFilter {
     }
 
     public void clear() {
-        bitset.clear();
-        Arrays.fill(table, 0);
+        table.clear();
         size = 0;
     }
 
-    private static int count(long val) {
-        int count = 0;
-        if ((val & 0xFFFFFFFF00000000L) != 0) count += 4;
-        val |= val >>> 32;
-        if ((val & 0xFFFF0000L) != 0) count += 2;
-        val |= val >>> 16;
-        if ((val & 0xFF00L) != 0) count += 1;
-        val |= val >>> 8;
-        if ((val & 0xFFL) != 0) count += 1;
+    // top bits of zero lanes of the chunk: low bits of a lane overflow into its top bit only if they aren't zero,
+    // and they can't overflow into the next lane, so unlike (x - ones) & ~x & highs every lane is exact
+    private long matches(long x, int c) {
+        long low = chunkHighs[c] - chunkOnes[c];
+        return ~((x & low) + low | x) & chunkHighs[c];
+    }
+
+    int count(int bucket) {
+        int count = bucketSize;
+        for (int c = 0; c < chunkOnes.length; c++) count -= Long.bitCount(matches(chunk(bucket, c), c));
         return count;
     }
 
-    private int hash(byte[] key) {
-        return MurmurHash3.hash32xArray(key, seedForHash) & mask;
+    int emptySlot(int bucket) {
+        for (int c = 0; c < chunkOnes.length; c++) {
+            long empty = matches(chunk(bucket, c), c);
+            if (empty != 0) return c * lanes + Long.numberOfTrailingZeros(empty) / fingerprintBits;
+        }
+        return -1;
+    }
+
+    // lanes of the chunk c of the bucket, chunks of 12-bit fingerprints may cross words
+    private long chunk(int bucket, int c) {
+        long bit = ((long) bucket * bucketSize + (long) c * lanes) * fingerprintBits;
+        int word = (int) (bit >>> 6), shift = (int) (bit & 63);
+        long value = table.get(word) >>> shift;
+        if (shift != 0) value |= table.get(word + 1) << (64 - shift);
+        return value & (chunkHighs[c] | chunkHighs[c] - chunkOnes[c]);
+    }
+
+    long get(int bucket, int slot) {
+        long bit = ((long) bucket * bucketSize + slot) * fingerprintBits;
+        int word = (int) (bit >>> 6), shift = (int) (bit & 63);
+        long value = table.get(word) >>> shift;
+        if (shift + fingerprintBits > 64) value |= table.get(word + 1) << (64 - shift);
+        return value & fingerprintMask;
+    }
+
+    void set(int bucket, int slot, long fingerprint) {
+        long bit = ((long) bucket * bucketSize + slot) * fingerprintBits;
+        int word = (int) (bit >>> 6), shift = (int) (bit & 63);
+        table.set(word, table.get(word) & ~(fingerprintMask << shift) | fingerprint << shift);
+        if (shift + fingerprintBits > 64) {
+            int written = 64 - shift;
+            table.set(word + 1, table.get(word + 1) & ~(fingerprintMask >>> written) | fingerprint >>> written);
+        }
+    }
+
+    // bucket is taken from the low bits of the hash and fingerprint from the high ones
+    long hash(String key) {
+        byte[] arr = key.getBytes(StandardCharsets.UTF_8);
+        return MurmurHash3.hash64xArray(arr, 0, arr.length, seed);
+    }
+
+    // 0 is reserved for empty slots, it is mapped to 1 without a branch
+    long fingerprint(long hash) {
+        long fingerprint = hash >>> 32 & fingerprintMask;
+        return fingerprint | (fingerprint - 1) >>> 63;
+    }
+
+    // alternate bucket is bucket ^ hashFingerprint(fingerprint) both ways, so one multiply is enough
+    int hashFingerprint(long fingerprint) {
+        return (int) (fingerprint * 0xC6A4A7935BD1E995L >>> 32) & mask;
+    }
+
+    // storage of the words of the table
+    interface Words {
+        int length();
+
+        long get(int index);
+
+        void set(int index, long value);
+
+        void clear();
     }
 
-    private int fingerprint(byte[] key) {
-        return MurmurHash3.hash32xArray(key, seedForFingerprint) & MASK_FOR_FINGERPRINT;
+    private static final class HeapWords implements Words {
+        private final long[] words;
+
+        private HeapWords(int length) {
+            words = new long[length];
+        }
+
+        @Override
+        public int length() {
+            return words.length;
+        }
+
+        @Override
+        public long get(int index) {
+            return words[index];
+        }
+
+        @Override
+        public void set(int index, long value) {
+            words[index] = value;
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(words, 0);
+        }
     }
 
-    private int hashFingerprint(int a) {
-        return MurmurHash3.hash32x64(a, seedForFingerprint) & mask;
+    // one mapping is limited to 2GB, so the table is mapped by segments of 2^27 words
+    private static final class MappedWords implements Words {
+        private static final int SEGMENT_BITS = 27;
+        private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+        private final ByteBuffer[] segments;
+        private final int length;
+
+        private MappedWords(FileChannel channel, int length) throws IOException {
+            this.length = length;
+            segments = new ByteBuffer[(int) (((long) length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long from = (long) i << SEGMENT_BITS, to = Math.min(from + SEGMENT_MASK + 1, length);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + 8 * from, 8 * (to - from))
+                        .order(ORDER);
+            }
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public long get(int index) {
+            return segments[index >>> SEGMENT_BITS].getLong((index & SEGMENT_MASK) << 3);
+        }
+
+        @Override
+        public void set(int index, long value) {
+            throw new UnsupportedOperationException("Mapped CuckooFilter is read-only");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Mapped CuckooFilter is read-only");
+        }
     }
 }
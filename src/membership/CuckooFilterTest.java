@@ -1,14 +1,24 @@
 package membership;
 
+import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import utils.RandomGenerator;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class CuckooFilterTest {
+    @TempDir
+    Path dir;
 
     @Test
     void testAdd() {
@@ -212,4 +222,196 @@ class CuckooFilterTest {
         System.out.println(errorRate);
         assertTrue(errorRate < 0.04);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testFingerprintAndBucketSizes() {
+        for (int bits : new int[]{8, 12, 16, 32}) {
+            for (int bucketSize : new int[]{2, 4, 8}) {
+                int capacity = 1 << 10;
+                int elements = capacity * bucketSize * 3 / 4;
+                CuckooFilter cuckooFilter = new CuckooFilter(capacity, bits, bucketSize);
+                assertEquals(bits, cuckooFilter.fingerprintBits());
+                assertEquals(bucketSize, cuckooFilter.bucketSize());
+
+                RandomGenerator.setSeed(bits * 10 + bucketSize);
+                for (int i = 0; i < elements; i++) cuckooFilter.add(RandomGenerator.getRandomString(10));
+                RandomGenerator.setSeed(bits * 10 + bucketSize);
+                for (int i = 0; i < elements; i++) assertTrue(cuckooFilter.contains(RandomGenerator.getRandomString(10)));
+
+                int fails = 0;
+                for (int i = 0; i < elements; i++) if (cuckooFilter.contains(RandomGenerator.getRandomString(12))) fails++;
+                // expected rate is about 2 * bucketSize * load / 2^bits
+                assertTrue(fails <= elements * 4.0 * bucketSize / (1L << bits) + 3);
+
+                long size = cuckooFilter.size();
+                RandomGenerator.setSeed(bits * 10 + bucketSize);
+                for (int i = 0; i < elements; i += 2) {
+                    String key = RandomGenerator.getRandomString(10);
+                    RandomGenerator.getRandomString(10);
+                    if (cuckooFilter.remove(key)) size--;
+                }
+                assertEquals(size, cuckooFilter.size());
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> new CuckooFilter(16, 10, 4));
+        assertThrows(IllegalArgumentException.class, () -> new CuckooFilter(16, 8, 3));
+    }
+
+    @Test
+    void testErrorRateForLongFingerprints() {
+        int capacity = 1 << 14;
+        int elements = capacity * 4 * 9 / 10;
+        CuckooFilter cuckooFilter = new CuckooFilter(capacity, 16, 4);
+        RandomGenerator.setSeed(1);
+        for (int i = 0; i < elements; i++) cuckooFilter.add(RandomGenerator.getRandomString(10));
+        int fails = 0;
+        for (int i = 0; i < elements; i++) if (cuckooFilter.contains(RandomGenerator.getRandomString(12))) fails++;
+        assertTrue((double) fails / elements < 0.0003);
+    }
+
+    @Test
+    void testRemoveAll() {
+        // keys with fingerprint 0 share the fingerprint 1 and live in buckets like any other keys
+        int capacity = 1 << 10;
+        CuckooFilter cuckooFilter = new CuckooFilter(capacity);
+        RandomGenerator.setSeed(1);
+        int added = 0;
+        for (int i = 0; i < capacity * 4; i++) if (cuckooFilter.add(RandomGenerator.getRandomString(10))) added++;
+        assertEquals(added, cuckooFilter.size());
+        RandomGenerator.setSeed(1);
+        for (int i = 0; i < capacity * 4; i++) cuckooFilter.remove(RandomGenerator.getRandomString(10));
+        assertEquals(0, cuckooFilter.size());
+        RandomGenerator.setSeed(1);
+        for (int i = 0; i < capacity * 4; i++) assertFalse(cuckooFilter.contains(RandomGenerator.getRandomString(10)));
+    }
+
+    @Test
+    void testHighLoadAndAtomicFailure() {
+        for (int bucketSize : new int[]{4, 8}) {
+            int capacity = 1 << 12;
+            CuckooFilter cuckooFilter = new CuckooFilter(capacity, 16, bucketSize);
+            RandomGenerator.setSeed(bucketSize);
+            int added = 0;
+            try {
+                //noinspection InfiniteLoopStatement
+                while (true) if (cuckooFilter.add(RandomGenerator.getRandomString(10))) added++;
+            } catch (RuntimeException e) {
+                // failed insert changes nothing
+                assertEquals(added, cuckooFilter.size());
+                double load = (double) added / capacity / bucketSize;
+                assertTrue(load >= 0.95, "load " + load);
+            }
+            RandomGenerator.setSeed(bucketSize);
+            for (int i = 0; i < added; i++) assertTrue(cuckooFilter.contains(RandomGenerator.getRandomString(10)));
+        }
+    }
+
+    @Test
+    void testSameSeedSameFile() throws IOException {
+        CuckooFilter first = new CuckooFilter(1 << 10, 12, 4, 42);
+        CuckooFilter second = new CuckooFilter(1 << 10, 12, 4, 42);
+        RandomGenerator.setSeed(1);
+        for (int i = 0; i < 3000; i++) {
+            String key = RandomGenerator.getRandomString(10);
+            first.add(key);
+            second.add(key);
+        }
+        first.snapshot(dir.resolve("first.bin"));
+        second.snapshot(dir.resolve("second.bin"));
+        assertArrayEquals(Files.readAllBytes(dir.resolve("first.bin")), Files.readAllBytes(dir.resolve("second.bin")));
+    }
+
+    @Test
+    void testSnapshotAndRestore() throws IOException {
+        int[][] sizes = {{8, 8}, {12, 2}, {12, 4}, {16, 4}, {32, 2}};
+        for (int[] size : sizes) {
+            int capacity = 1 << 10;
+            CuckooFilter cuckooFilter = new CuckooFilter(capacity, size[0], size[1]);
+            RandomGenerator.setSeed(size[0] + size[1]);
+            for (int i = 0; i < capacity * size[1] * 8 / 10; i++) cuckooFilter.add(RandomGenerator.getRandomString(10));
+            Path file = dir.resolve("filter.bin");
+            cuckooFilter.snapshot(file);
+            CuckooFilter restored = CuckooFilter.restore(file);
+            assertEquals(cuckooFilter.size(), restored.size());
+            assertEquals(size[0], restored.fingerprintBits());
+            assertEquals(size[1], restored.bucketSize());
+            RandomGenerator.setSeed(size[0] + size[1]);
+            for (int i = 0; i < capacity * size[1] * 8 / 10; i++) {
+                String key = RandomGenerator.getRandomString(10);
+                assertTrue(restored.contains(key));
+                assertFalse(restored.add(key));
+            }
+            for (int i = 0; i < capacity; i++) {
+                String key = RandomGenerator.getRandomString(12);
+                assertEquals(cuckooFilter.contains(key), restored.contains(key));
+            }
+        }
+    }
+
+    @Test
+    void testMapReadOnly() throws IOException {
+        int capacity = 1 << 12;
+        CuckooFilter cuckooFilter = new CuckooFilter(capacity, 16, 4);
+        RandomGenerator.setSeed(1);
+        for (int i = 0; i < capacity * 3; i++) cuckooFilter.add(RandomGenerator.getRandomString(10));
+        Path file = dir.resolve("filter.bin");
+        cuckooFilter.snapshot(file);
+
+        CuckooFilter mapped = CuckooFilter.map(file);
+        assertEquals(cuckooFilter.size(), mapped.size());
+        RandomGenerator.setSeed(1);
+        for (int i = 0; i < capacity * 3; i++) {
+            String key = RandomGenerator.getRandomString(10);
+            assertTrue(mapped.contains(key));
+            assertFalse(mapped.add(key));
+        }
+        String absent = RandomGenerator.getRandomString(12);
+        while (mapped.contains(absent)) absent = RandomGenerator.getRandomString(12);
+        String key = absent;
+        assertThrows(UnsupportedOperationException.class, () -> mapped.add(key));
+        assertFalse(mapped.remove(key));
+        assertEquals(cuckooFilter.size(), mapped.size());
+    }
+
+    @Test
+    void testRestoreCorrupted() throws IOException {
+        Path file = dir.resolve("filter.bin");
+        Files.write(file, new byte[100]);
+        assertThrows(IllegalArgumentException.class, () -> CuckooFilter.restore(file));
+        new CuckooFilter(1 << 10).snapshot(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 8));
+        assertThrows(IllegalArgumentException.class, () -> CuckooFilter.map(file));
+        // capacity in the header which doesn't match the number of words
+        for (int capacity : new int[]{1 << 9, 1 << 11}) {
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(8, capacity);
+            Files.write(file, bytes);
+            assertThrows(IllegalArgumentException.class, () -> CuckooFilter.restore(file));
+            assertThrows(IllegalArgumentException.class, () -> CuckooFilter.map(file));
+        }
+    }
+
+    @Test
+    @Disabled
+    void testLoadFactorThroughput() {
+        int capacity = 1 << 20;
+        for (int bucketSize : new int[]{2, 4, 8}) {
+            CuckooFilter cuckooFilter = new CuckooFilter(capacity, 16, bucketSize);
+            String[] keys = new String[capacity * bucketSize];
+            RandomGenerator.setSeed(1);
+            for (int i = 0; i < keys.length; i++) keys[i] = RandomGenerator.getRandomString(10);
+            // time of inserts for every 5% of load
+            int step = keys.length / 20, i = 0;
+            try {
+                for (int band = 1; band <= 20; band++) {
+                    long start = System.nanoTime();
+                    for (; i < band * step; i++) cuckooFilter.add(keys[i]);
+                    System.out.printf("bucket %d, load %.2f: %.1f ns/insert%n", bucketSize,
+                            (double) cuckooFilter.size() / keys.length, (double) (System.nanoTime() - start) / step);
+                }
+            } catch (RuntimeException e) {
+                System.out.printf("bucket %d: full at load %.4f%n", bucketSize, (double) cuckooFilter.size() / keys.length);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package membership;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Cuckoo filter which grows instead of failing: when the newest level can't take a key, a level of twice the capacity
+// is added and takes all next keys. Level i gets at most falsePositiveRate / 2^(i + 1) of the false-positive rate,
+// so its fingerprints are longer, and the sum over all levels never exceeds the target.
+// Keys are hashed once, newer and larger levels are probed first.
+public class ElasticCuckooFilter {
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    private static final int[] FINGERPRINT_BITS = {8, 12, 16, 32};
+
+    private final List<CuckooFilter> levels = new ArrayList<>();
+    private final int initialCapacity, bucketSize;
+    private final double falsePositiveRate;
+    private long size;
+
+    public ElasticCuckooFilter() {
+        this(CuckooFilter.DEFAULT_CAPACITY);
+    }
+
+    public ElasticCuckooFilter(int initialCapacity) {
+        this(initialCapacity, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    public ElasticCuckooFilter(int initialCapacity, double falsePositiveRate) {
+        this(initialCapacity, falsePositiveRate, CuckooFilter.DEFAULT_BUCKET_SIZE);
+    }
+
+    public ElasticCuckooFilter(int initialCapacity, double falsePositiveRate, int bucketSize) {
+        if (initialCapacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        if (initialCapacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Capacity must be less than " + MAX_CAPACITY);
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("False positive rate must be in (0, 1)");
+        this.initialCapacity = initialCapacity;
+        this.falsePositiveRate = falsePositiveRate;
+        this.bucketSize = bucketSize;
+        addLevel();
+    }
+
+    public boolean contains(String key) {
+        if (key == null) throw new IllegalArgumentException("Key must not be null");
+        long hash = levels.get(0).hash(key);
+        for (int i = levels.size() - 1; i >= 0; i--) if (levels.get(i).containsHash(hash)) return true;
+        return false;
+    }
+
+    public boolean add(String key) {
+        if (key == null) throw new IllegalArgumentException("Key must not be null");
+        long hash = levels.get(0).hash(key);
+        for (int i = levels.size() - 2; i >= 0; i--) if (levels.get(i).containsHash(hash)) return false;
+        int result = levels.get(levels.size() - 1).addHash(hash);
+        if (result == CuckooFilter.FULL) {
+            // nothing was changed, the key goes into a new level
+            result = addLevel().addHash(hash);
+            if (result == CuckooFilter.FULL)
+                throw new RuntimeException("Could not add key " + key + " to ElasticCuckooFilter");
+        }
+        if (result == CuckooFilter.PRESENT) return false;
+        size++;
+        return true;
+    }
+
+    public boolean remove(String key) {
+        if (key == null) throw new IllegalArgumentException("Key must not be null");
+        long hash = levels.get(0).hash(key);
+        // an added key is never found in the levels older than its own, since add checks them and they don't change
+        // afterwards, while a newer level may have a key with the same fingerprint, so levels are searched oldest first
+        for (CuckooFilter level : levels) {
+            if (level.removeHash(hash)) {
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // keeps only the first level
+    public void clear() {
+        levels.subList(1, levels.size()).clear();
+        levels.get(0).clear();
+        size = 0;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int levels() {
+        return levels.size();
+    }
+
+    // upper bound of the false-positive rate of the current levels at their current load
+    public double falsePositiveRate() {
+        double rate = 0;
+        for (CuckooFilter level : levels) {
+            double buckets = level.mask + 1;
+            rate += 2 * level.size() / buckets * Math.pow(2, -level.fingerprintBits());
+        }
+        return rate;
+    }
+
+    private CuckooFilter addLevel() {
+        int i = levels.size();
+        long capacity = Math.min((long) initialCapacity << Math.min(i, 31), MAX_CAPACITY);
+        double rate = falsePositiveRate / Math.pow(2, i + 1);
+        CuckooFilter level = new CuckooFilter((int) capacity, fingerprintBits(rate), bucketSize);
+        levels.add(level);
+        return level;
+    }
+
+    // the shortest fingerprint for which 2 * bucketSize / 2^fingerprintBits is not greater than the rate
+    private int fingerprintBits(double rate) {
+        for (int bits : FINGERPRINT_BITS) if (2.0 * bucketSize * Math.pow(2, -bits) <= rate) return bits;
+        return FINGERPRINT_BITS[FINGERPRINT_BITS.length - 1];
+    }
+}
@@ -0,0 +1,88 @@
+package membership;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static utils.RandomGenerator.getRandomStrings;
+
+class ElasticCuckooFilterTest {
+
+    @Test
+    void testGrowsInsteadOfFailing() {
+        ElasticCuckooFilter filter = new ElasticCuckooFilter(16);
+        String[] keys = getRandomStrings(100_000, 16, 1);
+        int added = 0;
+        for (String key : keys) if (filter.add(key)) added++;
+        assertEquals(added, filter.size());
+        assertTrue(filter.levels() > 1);
+        for (String key : keys) assertTrue(filter.contains(key));
+    }
+
+    @Test
+    void testAddExisting() {
+        ElasticCuckooFilter filter = new ElasticCuckooFilter(16);
+        String[] keys = getRandomStrings(10_000, 16, 1);
+        for (String key : keys) filter.add(key);
+        long size = filter.size();
+        for (String key : keys) assertFalse(filter.add(key));
+        assertEquals(size, filter.size());
+    }
+
+    @Test
+    void testFalsePositiveRateIsKeptAcrossGrowth() {
+        IntStream.of(2, 4, 8).parallel().forEach(bucketSize -> {
+            for (double rate : new double[]{0.05, 0.01, 0.001}) {
+                ElasticCuckooFilter filter = new ElasticCuckooFilter(1 << 8, rate, bucketSize);
+                for (String key : getRandomStrings(200_000, 16, bucketSize)) filter.add(key);
+                assertTrue(filter.levels() > 5);
+                assertTrue(filter.falsePositiveRate() <= rate);
+                int fails = 0, n = 200_000;
+                for (String key : getRandomStrings(n, 16, bucketSize + 100)) if (filter.contains(key)) fails++;
+                assertTrue(fails <= n * rate, "bucket " + bucketSize + ", rate " + rate + ": " + fails);
+            }
+        });
+    }
+
+    @Test
+    void testRemove() {
+        ElasticCuckooFilter filter = new ElasticCuckooFilter(16, 0.001);
+        String[] keys = getRandomStrings(50_000, 16, 2);
+        // false positives of add are not added, they can't be removed
+        boolean[] added = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) added[i] = filter.add(keys[i]);
+        long size = filter.size();
+        int removed = 0, fails = 0;
+        for (int i = 0; i < keys.length; i += 2) {
+            if (!added[i]) continue;
+            assertTrue(filter.remove(keys[i]));
+            removed++;
+        }
+        assertEquals(size - removed, filter.size());
+        for (int i = 1; i < keys.length; i += 2) if (added[i]) assertTrue(filter.contains(keys[i]));
+        for (int i = 0; i < keys.length; i += 2) if (filter.contains(keys[i])) fails++;
+        assertTrue(fails < keys.length / 2 * 0.001);
+    }
+
+    @Test
+    void testClear() {
+        ElasticCuckooFilter filter = new ElasticCuckooFilter(16);
+        String[] keys = getRandomStrings(10_000, 16, 3);
+        for (String key : keys) filter.add(key);
+        filter.clear();
+        assertEquals(0, filter.size());
+        assertEquals(1, filter.levels());
+        for (String key : keys) assertFalse(filter.contains(key));
+        for (String key : keys) filter.add(key);
+        for (String key : keys) assertTrue(filter.contains(key));
+    }
+
+    @Test
+    void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new ElasticCuckooFilter(0));
+        assertThrows(IllegalArgumentException.class, () -> new ElasticCuckooFilter(16, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ElasticCuckooFilter(16, 1));
+        assertThrows(IllegalArgumentException.class, () -> new ElasticCuckooFilter(16, 0.01, 3));
+    }
+}
@@ -0,0 +1,212 @@
+package membership;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+import static java.nio.file.StandardOpenOption.*;
+
+// RangeQueryCountMinSketch with all counters in one flat buffer outside of the heap
+// file layout: header (magic, version, range, depth, widths of levels) padded to 8 bytes, then counters of all levels
+public class OffHeapRangeQueryCountMinSketch extends RangeQueryCountMinSketch {
+    private static final int MAGIC = 0x52514353; // "SCQR" in the little-endian file
+    private static final int VERSION = 1;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final int MAX_HEIGHT = 64;
+
+    public OffHeapRangeQueryCountMinSketch(int width, int depth, long minAcceptedValue, long maxAcceptedValue) {
+        this(new int[]{width}, depth, minAcceptedValue, maxAcceptedValue);
+    }
+
+    public OffHeapRangeQueryCountMinSketch(int[] widths, int depth, long minAcceptedValue, long maxAcceptedValue) {
+        this(widths, depth, minAcceptedValue, maxAcceptedValue, sizes -> new OffHeapCounters(sizes, null));
+    }
+
+    public OffHeapRangeQueryCountMinSketch(double eps, double confidence, long minAcceptedValue, long maxAcceptedValue) {
+        this(widthFor(eps), depthFor(confidence), minAcceptedValue, maxAcceptedValue);
+    }
+
+    private OffHeapRangeQueryCountMinSketch(int[] widths, int depth, long minAcceptedValue, long maxAcceptedValue,
+                                            Function<int[], Counters> storage) {
+        super(widths, depth, minAcceptedValue, maxAcceptedValue, storage);
+    }
+
+    // opens a sketch whose counters live in the file, so they survive restarts; the file is created if it is absent
+    public static OffHeapRangeQueryCountMinSketch map(Path file, int[] widths, int depth,
+                                                      long minAcceptedValue, long maxAcceptedValue) throws IOException {
+        if (file == null) throw new IllegalArgumentException("File must not be null");
+        try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+            // the layout is checked against the file before mapping, since mapping grows a shorter file
+            OffHeapRangeQueryCountMinSketch layout = new OffHeapRangeQueryCountMinSketch(widths, depth,
+                    minAcceptedValue, maxAcceptedValue, Layout::new);
+            ByteBuffer header = layout.header();
+            boolean existing = channel.size() > 0;
+            if (existing) {
+                ByteBuffer actual = ByteBuffer.allocate(header.capacity());
+                channel.read(actual, 0);
+                if (!actual.flip().equals(header))
+                    throw new IllegalArgumentException("File contains a sketch with a different layout");
+                if (channel.size() != header.capacity() + ((Layout) layout.storage()).bytes)
+                    throw new IllegalArgumentException("Corrupted file");
+            }
+
+            OffHeapRangeQueryCountMinSketch sketch;
+            try {
+                sketch = new OffHeapRangeQueryCountMinSketch(widths, depth, minAcceptedValue, maxAcceptedValue,
+                        sizes -> new OffHeapCounters(sizes, channel));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (!existing) channel.write(header, 0);
+            return sketch;
+        }
+    }
+
+    // reads a snapshot written by snapshot into a new off-heap sketch
+    public static OffHeapRangeQueryCountMinSketch restore(Path file) throws IOException {
+        if (file == null) throw new IllegalArgumentException("File must not be null");
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ORDER);
+            if (buffer.remaining() < 32 || buffer.getInt() != MAGIC)
+                throw new IllegalArgumentException("File doesn't contain a sketch");
+            if (buffer.getInt() != VERSION) throw new IllegalArgumentException("Unsupported version");
+            long minAcceptedValue = buffer.getLong();
+            long maxAcceptedValue = buffer.getLong();
+            int depth = buffer.getInt();
+            int height = buffer.getInt();
+            if (height <= 0 || height > MAX_HEIGHT || buffer.remaining() < 4 * height)
+                throw new IllegalArgumentException("Corrupted header");
+            int[] widths = new int[height];
+            for (int h = 0; h < height; h++) widths[h] = buffer.getInt();
+
+            // the size is checked before the counters are allocated, so a corrupted header can't allocate a huge buffer
+            OffHeapRangeQueryCountMinSketch layout = new OffHeapRangeQueryCountMinSketch(widths, depth,
+                    minAcceptedValue, maxAcceptedValue, Layout::new);
+            if (channel.size() != headerSize(height) + ((Layout) layout.storage()).bytes)
+                throw new IllegalArgumentException("Corrupted file");
+            OffHeapRangeQueryCountMinSketch sketch = new OffHeapRangeQueryCountMinSketch(widths, depth, minAcceptedValue, maxAcceptedValue);
+            ((OffHeapCounters) sketch.storage()).buffer.duplicate().put(buffer.position(headerSize(height)));
+            return sketch;
+        }
+    }
+
+    public void snapshot(Path file) throws IOException {
+        if (file == null) throw new IllegalArgumentException("File must not be null");
+        ByteBuffer counters = ((OffHeapCounters) storage()).buffer.duplicate().clear();
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer header = header();
+            while (header.hasRemaining()) channel.write(header);
+            while (counters.hasRemaining()) channel.write(counters);
+            channel.force(true);
+        }
+    }
+
+    // writes changes of a mapped sketch to the file
+    public void flush() {
+        ByteBuffer buffer = ((OffHeapCounters) storage()).buffer;
+        if (buffer instanceof MappedByteBuffer) ((MappedByteBuffer) buffer).force();
+    }
+
+    private ByteBuffer header() {
+        int[] widths = widths();
+        ByteBuffer header = ByteBuffer.allocate(headerSize(widths.length)).order(ORDER);
+        header.putInt(MAGIC).putInt(VERSION);
+        header.putLong(minAcceptedValue()).putLong(maxAcceptedValue());
+        header.putInt(depth()).putInt(widths.length);
+        for (int width : widths) header.putInt(width);
+        return header.clear();
+    }
+
+    private static int headerSize(int height) {
+        return (32 + 4 * height + 7) & ~7;
+    }
+
+    private static long bytes(int[] sizes) {
+        long total = 0;
+        for (int size : sizes) total += 4L * size;
+        if (total > Integer.MAX_VALUE - headerSize(MAX_HEIGHT))
+            throw new IllegalArgumentException("Sketch is too large for off-heap storage");
+        return total;
+    }
+
+    // sizes of the levels without any counters, to check a file before mapping or restoring it
+    private static final class Layout implements Counters {
+        private final int[] sizes;
+        private final long bytes;
+
+        private Layout(int[] sizes) {
+            this.sizes = sizes;
+            this.bytes = bytes(sizes);
+        }
+
+        @Override
+        public int size(int level) {
+            return sizes[level];
+        }
+
+        @Override
+        public int get(int level, int index) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(int level, int index, int amount) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class OffHeapCounters implements Counters {
+        private final ByteBuffer buffer;
+        private final int[] offsets; // offset of each level in bytes, the last one is the size of the buffer
+
+        private OffHeapCounters(int[] sizes, FileChannel channel) {
+            long total = bytes(sizes);
+            offsets = new int[sizes.length + 1];
+            for (int h = 0; h < sizes.length; h++) offsets[h + 1] = offsets[h] + 4 * sizes[h];
+
+            if (channel == null) {
+                buffer = ByteBuffer.allocateDirect((int) total).order(ORDER);
+            } else {
+                try {
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, headerSize(sizes.length - 1), total).order(ORDER);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        @Override
+        public int size(int level) {
+            return (offsets[level + 1] - offsets[level]) >>> 2;
+        }
+
+        @Override
+        public int get(int level, int index) {
+            return buffer.getInt(offsets[level] + (index << 2));
+        }
+
+        @Override
+        public void add(int level, int index, int amount) {
+            int position = offsets[level] + (index << 2);
+            int value = buffer.getInt(position);
+            buffer.putInt(position, value >= Integer.MAX_VALUE - amount ? Integer.MAX_VALUE : value + amount);
+        }
+
+        @Override
+        public void clear() {
+            int size = buffer.capacity();
+            for (int i = 0; i < size; i += 4) buffer.putInt(i, 0);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package membership;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import prng.XorShiftN;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapRangeQueryCountMinSketchTest {
+    private static final int m = 1 << 14;
+    private static final int n = 1 << 14;
+    private static final int k = 3;
+    private static final int rangeLog = 20;
+    private static final long minAcceptedValue = 1L << 40;
+    private static final long maxAcceptedValue = minAcceptedValue + (1 << rangeLog) - 1;
+    private static final int[] widths = {m, m >> 2};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testMatchesHeapSketch() {
+        RangeQueryCountMinSketch expected = new RangeQueryCountMinSketch(widths, k, minAcceptedValue, maxAcceptedValue);
+        OffHeapRangeQueryCountMinSketch actual = new OffHeapRangeQueryCountMinSketch(widths, k, minAcceptedValue, maxAcceptedValue);
+        fill(expected, 1);
+        fill(actual, 1);
+        assertSameCounts(expected, actual);
+
+        actual.clear();
+        assertEquals(0, actual.getCount());
+        assertEquals(0, actual.getCount(minAcceptedValue, maxAcceptedValue - 1));
+    }
+
+    @Test
+    void testSnapshotAndRestore() throws IOException {
+        OffHeapRangeQueryCountMinSketch sketch = new OffHeapRangeQueryCountMinSketch(widths, k, minAcceptedValue, maxAcceptedValue);
+        fill(sketch, 1);
+        Path file = dir.resolve("sketch.bin");
+        sketch.snapshot(file);
+
+        OffHeapRangeQueryCountMinSketch restored = OffHeapRangeQueryCountMinSketch.restore(file);
+        assertSameCounts(sketch, restored);
+
+        // restored sketch is independent of the file and of the original sketch
+        fill(restored, 2);
+        fill(sketch, 2);
+        assertSameCounts(sketch, restored);
+    }
+
+    @Test
+    void testMappedSketchSurvivesReopen() throws IOException {
+        Path file = dir.resolve("mapped.bin");
+        OffHeapRangeQueryCountMinSketch mapped = OffHeapRangeQueryCountMinSketch.map(file, widths, k, minAcceptedValue, maxAcceptedValue);
+        fill(mapped, 1);
+        mapped.flush();
+
+        OffHeapRangeQueryCountMinSketch reopened = OffHeapRangeQueryCountMinSketch.map(file, widths, k, minAcceptedValue, maxAcceptedValue);
+        assertSameCounts(mapped, reopened);
+
+        // mapped file is a valid snapshot as well
+        assertSameCounts(mapped, OffHeapRangeQueryCountMinSketch.restore(file));
+    }
+
+    @Test
+    void testMapDifferentLayout() throws IOException {
+        Path file = dir.resolve("mapped.bin");
+        OffHeapRangeQueryCountMinSketch mapped = OffHeapRangeQueryCountMinSketch.map(file, widths, k, minAcceptedValue, maxAcceptedValue);
+        fill(mapped, 1);
+        mapped.flush();
+        byte[] content = Files.readAllBytes(file);
+        assertThrows(IllegalArgumentException.class,
+                () -> OffHeapRangeQueryCountMinSketch.map(file, widths, k + 1, minAcceptedValue, maxAcceptedValue));
+        assertThrows(IllegalArgumentException.class,
+                () -> OffHeapRangeQueryCountMinSketch.map(file, new int[]{m}, k, minAcceptedValue, maxAcceptedValue));
+        // a rejected layout leaves the file as it was
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertSameCounts(mapped, OffHeapRangeQueryCountMinSketch.restore(file));
+    }
+
+    @Test
+    void testRestoreCorrupted() throws IOException {
+        OffHeapRangeQueryCountMinSketch sketch = new OffHeapRangeQueryCountMinSketch(widths, k, minAcceptedValue, maxAcceptedValue);
+        Path file = dir.resolve("sketch.bin");
+        sketch.snapshot(file);
+        byte[] content = Files.readAllBytes(file);
+        // header cut in the middle of the widths, and the whole header without counters
+        for (int length : new int[]{34, 40, 200}) {
+            Path truncated = dir.resolve("truncated" + length + ".bin");
+            Files.write(truncated, Arrays.copyOf(content, length));
+            assertThrows(IllegalArgumentException.class, () -> OffHeapRangeQueryCountMinSketch.restore(truncated));
+            assertThrows(IllegalArgumentException.class,
+                    () -> OffHeapRangeQueryCountMinSketch.map(truncated, widths, k, minAcceptedValue, maxAcceptedValue));
+            assertEquals(length, Files.size(truncated));
+        }
+        // widths which would need far more counters than the file has
+        Path large = dir.resolve("large.bin");
+        ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).putInt(32, 1 << 24);
+        Files.write(large, content);
+        assertThrows(IllegalArgumentException.class, () -> OffHeapRangeQueryCountMinSketch.restore(large));
+    }
+
+    private static void fill(RangeQueryCountMinSketch sketch, int seed) {
+        XorShiftN xorShiftN = new XorShiftN(seed, rangeLog);
+        for (int i = 0; i < n; i++) sketch.add(minAcceptedValue + xorShiftN.nextInteger());
+    }
+
+    private static void assertSameCounts(RangeQueryCountMinSketch expected, RangeQueryCountMinSketch actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        XorShiftN xorShiftN = new XorShiftN(3, rangeLog);
+        for (int i = 0; i < n; i++) {
+            long a = minAcceptedValue + xorShiftN.nextInteger(), b = minAcceptedValue + xorShiftN.nextInteger();
+            assertEquals(expected.getCount(a), actual.getCount(a));
+            assertEquals(expected.getCount(Math.min(a, b), Math.max(a, b)), actual.getCount(Math.min(a, b), Math.max(a, b)));
+        }
+        assertEquals(expected.quantile(0.5), actual.quantile(0.5));
+    }
+}
@@ -0,0 +1,127 @@
+package membership;
+
+import hash.MurmurHash3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static utils.IntegerUtils.nextPow2;
+
+// Counting Bloom filter with 4 or 8 bit saturating counters packed into longs, which can be shared between threads:
+// counters are updated with CAS on their words and there is no other mutable state.
+// Counters of a key are chosen like in CountingBloomFilter. Saturated counters stay saturated, since their real count
+// is unknown.
+public class PackedCountingBloomFilter {
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final int DEFAULT_COUNTER_BITS = 4;
+    private final AtomicLongArray words;
+    private final int mask, k;
+    private final int counterBits, counterShift; // counters per word is 2^counterShift
+    private final long maxCount;
+
+    public PackedCountingBloomFilter(int size, int numberOfHashFunctions) {
+        this(size, numberOfHashFunctions, DEFAULT_COUNTER_BITS);
+    }
+
+    public PackedCountingBloomFilter(int size, int numberOfHashFunctions, int counterBits) {
+        if (size > MAX_CAPACITY) throw new IllegalArgumentException("Size too large");
+        if (size <= 0) throw new IllegalArgumentException("Size must be positive");
+        if (numberOfHashFunctions < 1) throw new IllegalArgumentException("Hash functions must be positive");
+        if (counterBits != 4 && counterBits != 8) throw new IllegalArgumentException("Counters must have 4 or 8 bits");
+
+        int size1 = nextPow2(size);
+        if (numberOfHashFunctions > size1) throw new IllegalArgumentException("Too many hash functions for the size");
+        this.counterBits = counterBits;
+        this.counterShift = Integer.numberOfTrailingZeros(64 / counterBits);
+        this.maxCount = (1L << counterBits) - 1;
+        this.words = new AtomicLongArray(Math.max(size1 >>> counterShift, 1));
+        this.mask = size1 - 1;
+        this.k = numberOfHashFunctions;
+    }
+
+    public void add(String key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < k; i++) increment(h1 + i * h2 & mask);
+    }
+
+    // decrements counters of the key if all of them are positive, returns false if the key is not in the filter
+    public boolean remove(String key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < k; i++) if (get(h1 + i * h2 & mask) == 0) return false;
+        for (int i = 0; i < k; i++) decrement(h1 + i * h2 & mask);
+        return true;
+    }
+
+    public boolean contains(String key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < k; i++) if (get(h1 + i * h2 & mask) == 0) return false;
+        return true;
+    }
+
+    public boolean containsAtLeastTime(String key, int times) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        if (times <= 0) throw new IllegalArgumentException("Times must be positive");
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < k; i++) if (get(h1 + i * h2 & mask) < times) return false;
+        return true;
+    }
+
+    // minimum of the counters of the key, at most 2^counterBits - 1
+    public int getCount(String key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        int count = Integer.MAX_VALUE;
+        for (int i = 0; i < k; i++) count = Math.min(count, get(h1 + i * h2 & mask));
+        return count;
+    }
+
+    public int counterBits() {
+        return counterBits;
+    }
+
+    // not atomic, keys added concurrently with clear may be partially kept
+    public void clear() {
+        for (int i = 0; i < words.length(); i++) words.set(i, 0);
+    }
+
+    private int get(int counter) {
+        int shift = (counter & (1 << counterShift) - 1) * counterBits;
+        return (int) (words.get(counter >>> counterShift) >>> shift & maxCount);
+    }
+
+    private void increment(int counter) {
+        int word = counter >>> counterShift, shift = (counter & (1 << counterShift) - 1) * counterBits;
+        long prev = words.get(word);
+        while ((prev >>> shift & maxCount) != maxCount) {
+            long witness = words.compareAndExchange(word, prev, prev + (1L << shift));
+            if (witness == prev) return;
+            prev = witness;
+        }
+    }
+
+    private void decrement(int counter) {
+        int word = counter >>> counterShift, shift = (counter & (1 << counterShift) - 1) * counterBits;
+        long prev = words.get(word);
+        while (true) {
+            long count = prev >>> shift & maxCount;
+            // zero may come from a concurrent remove, saturated counters are never decremented
+            if (count == 0 || count == maxCount) return;
+            long witness = words.compareAndExchange(word, prev, prev - (1L << shift));
+            if (witness == prev) return;
+            prev = witness;
+        }
+    }
+
+    private static long hash(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return MurmurHash3.hash64xArray(bytes, 0, bytes.length, 0);
+    }
+}
@@ -0,0 +1,160 @@
+package membership;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static utils.RandomGenerator.getRandomStrings;
+
+class PackedCountingBloomFilterTest {
+    private static final int m = 1 << 14;
+    private static final int n = 1 << 12;
+    private static final int k = 3;
+    private static final int tests = 1 << 14;
+    private static final int threads = 8;
+
+    private static final double maxErrorRateContainsNonExisting = 0.17;
+    private static final double maxErrorRateCountExisting = 0.18;
+
+    @Test
+    void testAdd() {
+        PackedCountingBloomFilter cbf = new PackedCountingBloomFilter(16, 2);
+        cbf.add("test");
+        assertTrue(cbf.contains("test"));
+        assertEquals(1, cbf.getCount("test"));
+    }
+
+    @Test
+    void testClear() {
+        PackedCountingBloomFilter cbf = new PackedCountingBloomFilter(16, 2);
+        cbf.add("test");
+        cbf.clear();
+        assertFalse(cbf.contains("test"));
+    }
+
+    @Test
+    void testOneCounterPerHashFunction() {
+        // all k counters of a key are distinct even if the filter has only k of them
+        PackedCountingBloomFilter cbf = new PackedCountingBloomFilter(4, 4, 8);
+        for (int i = 0; i < 10; i++) cbf.add("key" + i);
+        assertEquals(10, cbf.getCount("anything"));
+    }
+
+    @Test
+    void testContainsExisting() {
+        IntStream.rangeClosed(1, 100).parallel().forEach(t -> {
+            PackedCountingBloomFilter bf = new PackedCountingBloomFilter(m, k);
+            String[] keys = getRandomStrings(n, 16, t);
+            for (String key : keys) bf.add(key);
+            for (String key : keys) {
+                assertTrue(bf.contains(key));
+                assertTrue(bf.containsAtLeastTime(key, 1));
+                assertTrue(bf.getCount(key) >= 1);
+            }
+        });
+    }
+
+    @Test
+    void testErrorRates() {
+        IntStream.rangeClosed(1, 100).parallel().forEach(t -> {
+            PackedCountingBloomFilter bf = new PackedCountingBloomFilter(m, k);
+            String[] keys = getRandomStrings(n, 16, t);
+            for (String key : keys) bf.add(key);
+            int fails = 0;
+            for (String key : keys) fails += bf.getCount(key) - 1;
+            assertTrue((double) fails / n <= maxErrorRateCountExisting);
+            fails = 0;
+            for (String key : getRandomStrings(tests, 16, -t)) if (bf.contains(key)) fails++;
+            assertTrue((double) fails / tests <= maxErrorRateContainsNonExisting);
+        });
+    }
+
+    @Test
+    void testSaturation() {
+        for (int bits : new int[]{4, 8}) {
+            PackedCountingBloomFilter cbf = new PackedCountingBloomFilter(m, k, bits);
+            int max = (1 << bits) - 1;
+            for (int i = 0; i < max + 10; i++) cbf.add("test");
+            assertEquals(max, cbf.getCount("test"));
+            // the real count of a saturated counter is unknown, so it is never decremented
+            for (int i = 0; i < max + 10; i++) assertTrue(cbf.remove("test"));
+            assertEquals(max, cbf.getCount("test"));
+        }
+    }
+
+    @Test
+    void testRemove() {
+        PackedCountingBloomFilter cbf = new PackedCountingBloomFilter(m, k);
+        String[] keys = getRandomStrings(n, 16, 1);
+        for (String key : keys) cbf.add(key);
+        for (int i = 0; i < n; i += 2) assertTrue(cbf.remove(keys[i]));
+        for (int i = 1; i < n; i += 2) assertTrue(cbf.contains(keys[i]));
+        for (int i = 1; i < n; i += 2) assertTrue(cbf.remove(keys[i]));
+        for (String key : keys) assertFalse(cbf.contains(key));
+        assertFalse(cbf.remove(keys[0]));
+        assertEquals(0, cbf.getCount(keys[0]));
+    }
+
+    @Test
+    void testConcurrentMatchesSequential() {
+        // increments commute, so concurrent adds must end in the same counters as sequential ones
+        for (int bits : new int[]{4, 8}) {
+            String[][] keys = new String[threads][];
+            for (int t = 0; t < threads; t++) keys[t] = getRandomStrings(n, 16, t + 1);
+            PackedCountingBloomFilter sequential = new PackedCountingBloomFilter(m / 4, k, bits);
+            for (String[] part : keys) for (String key : part) sequential.add(key);
+            PackedCountingBloomFilter concurrent = new PackedCountingBloomFilter(m / 4, k, bits);
+            IntStream.range(0, threads).parallel().forEach(t -> {
+                for (String key : keys[t]) concurrent.add(key);
+            });
+            for (String[] part : keys) for (String key : part) assertEquals(sequential.getCount(key), concurrent.getCount(key));
+
+            // removes from half of the threads while the other half adds again
+            IntStream.range(0, threads).parallel().forEach(t -> {
+                for (String key : keys[t]) {
+                    if (t % 2 == 0) concurrent.remove(key);
+                    else concurrent.add(key);
+                }
+            });
+            for (int t = 1; t < threads; t += 2) for (String key : keys[t]) assertTrue(concurrent.getCount(key) >= 2);
+        }
+    }
+
+    @Test
+    void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new PackedCountingBloomFilter(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new PackedCountingBloomFilter(16, 0));
+        assertThrows(IllegalArgumentException.class, () -> new PackedCountingBloomFilter(16, 17));
+        assertThrows(IllegalArgumentException.class, () -> new PackedCountingBloomFilter(16, 2, 16));
+    }
+
+    @Test
+    @Disabled
+    void testThroughput() {
+        int size = 1 << 24, keysCount = 1 << 22;
+        String[] keys = getRandomStrings(keysCount, 16, 1);
+        for (int round = 0; round < 3; round++) {
+            CountingBloomFilter plain = new CountingBloomFilter(size, k);
+            long start = System.nanoTime();
+            for (String key : keys) plain.add(key);
+            long plainAdd = System.nanoTime() - start;
+            PackedCountingBloomFilter packed = new PackedCountingBloomFilter(size, k);
+            start = System.nanoTime();
+            for (String key : keys) packed.add(key);
+            long packedAdd = System.nanoTime() - start;
+            start = System.nanoTime();
+            long parallelFound = IntStream.range(0, threads).parallel()
+                    .mapToLong(t -> {
+                        long found = 0;
+                        for (int i = t; i < keysCount; i += threads) if (packed.contains(keys[i])) found++;
+                        return found;
+                    }).sum();
+            long parallelContains = System.nanoTime() - start;
+            System.out.printf("add: int[] %.1f ns, packed %.1f ns; parallel contains %.1f ns (%d found)%n",
+                    (double) plainAdd / keysCount, (double) packedAdd / keysCount,
+                    (double) parallelContains / keysCount, parallelFound);
+        }
+    }
+}
@@ -1,56 +1,127 @@
 package membership;
 
+import hash.MurmurHash3;
+import utils.BitPackedArray;
+
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.function.ToLongFunction;
 
 public class QuotientFilter<K> {
-    private static final int MAX_BITS = 27;
-    private static final byte maskR = 0b11111;
-    private static final byte occupationByte = (byte) (1 << 5);
-    private static final byte continuationByte = (byte) (1 << 6);
-    private static final byte shiftByte = (byte) (1 << 7);
-    private static final byte elementMask = maskR | continuationByte | shiftByte;
-
-    private static final int shiftQ = 5;
-    private final byte[] t;
-    private final int maskQ;
-    private int size;
+    private static final int MAX_BITS = 40;
+    private static final int MAX_REMAINDER_BITS = 60;
+    private static final int HASH_BITS = 64;
+    private static final int DEFAULT_REMAINDER_BITS = 5;
+    // every slot keeps 3 bits of metadata and the remainder above them
+    private static final int metadataBits = 3;
+    private static final long occupiedBit = 1;
+    private static final long continuationBit = 1 << 1;
+    private static final long shiftBit = 1 << 2;
+    private static final long metadataMask = occupiedBit | continuationBit | shiftBit;
+    // shared by all quotient filters, so primitive keys can skip boxing when it is used
+    static final ToLongFunction<Object> DEFAULT_HASHER = QuotientFilter::hash64;
+
+    private final boolean resizable;
+    private final double maxLoadFactor;
+    private final ToLongFunction<? super K> hasher;
+    private BitPackedArray t;
+    private int bitsQ, bitsR;
+    private long maskQ, maskR, threshold;
+    private long size;
 
     public QuotientFilter(int bits) {
+        this(bits, DEFAULT_REMAINDER_BITS, 1, false, DEFAULT_HASHER);
+    }
+
+    // false-positive probability is about load factor * 2^-remainderBits
+    public QuotientFilter(int bits, int remainderBits) {
+        this(bits, remainderBits, 1, false, DEFAULT_HASHER);
+    }
+
+    // hasher must spread keys over all 64 bits, the lowest remainderBits of the hash are the remainder
+    public QuotientFilter(int bits, int remainderBits, ToLongFunction<? super K> hasher) {
+        this(bits, remainderBits, 1, false, hasher);
+    }
+
+    // filter doubles its capacity when load factor exceeds maxLoadFactor, every doubling takes one bit of remainders
+    public QuotientFilter(int bits, double maxLoadFactor) {
+        this(bits, DEFAULT_REMAINDER_BITS, maxLoadFactor, true, DEFAULT_HASHER);
+    }
+
+    public QuotientFilter(int bits, int remainderBits, double maxLoadFactor) {
+        this(bits, remainderBits, maxLoadFactor, true, DEFAULT_HASHER);
+    }
+
+    public QuotientFilter(int bits, int remainderBits, double maxLoadFactor, ToLongFunction<? super K> hasher) {
+        this(bits, remainderBits, maxLoadFactor, true, hasher);
+    }
+
+    private QuotientFilter(int bits, int remainderBits, double maxLoadFactor, boolean resizable,
+                           ToLongFunction<? super K> hasher) {
+        if (hasher == null) throw new IllegalArgumentException("Hasher must not be null");
         if (bits < 0) throw new IllegalArgumentException("Bits must be positive");
         if (bits > MAX_BITS) throw new IllegalArgumentException("Too many bits");
-        t = new byte[1 << bits];
-        maskQ = (1 << bits) - 1;
+        if (remainderBits <= 0 || remainderBits > MAX_REMAINDER_BITS)
+            throw new IllegalArgumentException("Remainder bits must be in [1, " + MAX_REMAINDER_BITS + "]");
+        if (bits + remainderBits > HASH_BITS)
+            throw new IllegalArgumentException("Quotient and remainder must fit into " + HASH_BITS + " bits");
+        if (maxLoadFactor <= 0 || maxLoadFactor > 1)
+            throw new IllegalArgumentException("Max load factor must be in (0, 1]");
+        this.resizable = resizable;
+        this.maxLoadFactor = maxLoadFactor;
+        this.hasher = hasher;
+        init(bits, remainderBits);
+    }
+
+    private void init(int bitsQ, int bitsR) {
+        this.t = new BitPackedArray(1L << bitsQ, bitsR + metadataBits);
+        this.bitsQ = bitsQ;
+        this.bitsR = bitsR;
+        this.maskQ = (1L << bitsQ) - 1;
+        this.maskR = (1L << bitsR) - 1;
+        this.threshold = (long) Math.min(t.size(), Math.ceil(t.size() * maxLoadFactor));
     }
 
     public boolean contains(K key) {
-        int hash = hash(key); // get hash, hash function's implementation can be changed
-        int fq = getQuotient(hash); //get index of the run
-        byte fr = getRemainder(hash); //get remainder to check if the key is in the run
+        return containsHash(hasher.applyAsLong(key));
+    }
+
+    // primitive keys are hashed like boxed Longs by the hasher of the filter
+    public boolean contains(long key) {
+        return containsHash(hashLong(hasher, key));
+    }
+
+    public boolean containsHash(long hash) {
+        return contains(getQuotient(hash), getRemainder(hash));
+    }
 
+    private boolean contains(long fq, long fr) {
         // check existence of corresponding run
-        if ((t[fq] & occupationByte) != occupationByte) return false;
-
-        // find start of the cluster
-        fq = findStartOfRun(fq);
-
-        //check elements in the run
-        if ((t[fq] & maskR) == fr) return true; //if the remainder is equal in the start of run, we found the key
-        fq = (fq + 1) & maskQ;
-        while ((t[fq] & continuationByte) == continuationByte) { //while the run is not finished
-            if ((t[fq] & maskR) == fr)
-                return true; //if the remainder in continued slot of the run is equal, we found the key
-            fq = (fq + 1) & maskQ; //go to the next slot
-        }
+        if ((t.get(fq) & occupiedBit) == 0) return false;
+
+        // runs are sorted by remainder, so we can stop at the first greater one
+        long s = findStartOfRun(fq), slot = t.get(s);
+        do {
+            long r = slot >>> metadataBits;
+            if (r == fr) return true;
+            if (r > fr) return false;
+            s = (s + 1) & maskQ;
+            slot = t.get(s);
+        } while ((slot & continuationBit) != 0);
         return false;
     }
 
-    public int size() {
+    public long size() {
         return size;
     }
 
-    public int capacity() {
-        return t.length;
+    public long capacity() {
+        return t.size();
+    }
+
+    public int remainderBits() {
+        return bitsR;
     }
 
     public boolean isEmpty() {
@@ -58,98 +129,311 @@ public class QuotientFilter<K> {
     }
 
     public boolean isFull() {
-        return size == t.length;
+        return size == t.size();
     }
 
     public void clear() {
-        Arrays.fill(t, (byte) 0);
+        t.clear();
         size = 0;
     }
 
     public boolean add(K key) {
-        if (size == t.length) {
-            if (contains(key)) return false;
+        return addHash(hasher.applyAsLong(key));
+    }
+
+    public boolean add(long key) {
+        return addHash(hashLong(hasher, key));
+    }
+
+    public boolean addHash(long hash) {
+        if (size >= threshold && resizable && canExpand() && !contains(getQuotient(hash), getRemainder(hash)))
+            expand();
+        return insert(getQuotient(hash), getRemainder(hash));
+    }
+
+    private boolean insert(long fq, long fr) {
+        if (size == t.size()) {
+            if (contains(fq, fr)) return false;
             else throw new RuntimeException("QuotientFilter is full");
         }
-        int hash = hash(key);
-        int fq = getQuotient(hash);
-        byte fr = getRemainder(hash);
 
-        // check existence of corresponding run
-        if ((t[fq] & occupationByte) != occupationByte) {
-            t[fq] |= occupationByte;
+        // if canonical slot is empty, create new run in it
+        long canonical = t.get(fq);
+        if ((canonical & metadataMask) == 0) {
+            t.set(fq, fr << metadataBits | occupiedBit);
             size++;
-            // if canonical slot is empty, create new run in it
-            if (t[fq] == 0) {
-                t[fq] |= fr;
-            } else {
-                //if canonical slot is occupied, find the position to place the run
-                fq = findStartOfRun(fq);
-
-                //if the slot is occupied with another run, we need to move them to the next slot
-                int prevValue = t[fq], nextValue;
-                t[fq] = (byte) (prevValue & occupationByte | fr | shiftByte);
-                while ((prevValue & elementMask) != 0) {
-                    fq = (fq + 1) & maskQ;
-                    nextValue = t[fq];
-                    t[fq] = (byte) (prevValue & elementMask | shiftByte | nextValue & occupationByte);
-                    prevValue = nextValue;
-                }
-            }
             return true;
-        } else {
-            fq = findStartOfRun(fq);
-            byte shift = (byte) (t[fq] & shiftByte);
-            if ((t[fq] & maskR) == fr) return false; //if the remainder is equal in the start of run, we found the key
-            fq = (fq + 1) & maskQ;
-            while ((t[fq] & continuationByte) == continuationByte) { //while the run is not finished
-                if ((t[fq] & maskR) == fr)
-                    return false; //if the remainder in continued slot of the run is equal, we found the key
-                fq = (fq + 1) & maskQ; //go to the next slot
+        }
+
+        boolean runExists = (canonical & occupiedBit) != 0;
+        t.set(fq, canonical | occupiedBit);
+        long start = findStartOfRun(fq), s = start;
+
+        // find the position of the remainder in the sorted run
+        if (runExists) {
+            long slot = t.get(s);
+            do {
+                long r = slot >>> metadataBits;
+                if (r == fr) return false; //if the remainder is equal, we found the key
+                if (r > fr) break;
+                s = (s + 1) & maskQ;
+                slot = t.get(s);
+            } while ((slot & continuationBit) != 0);
+        }
+
+        long entry = fr << metadataBits;
+        if (s != start) entry |= continuationBit;
+        if (s != fq) entry |= shiftBit;
+        // if the new remainder becomes the head of the run, the old head continues it
+        boolean headMoved = runExists && s == start;
+
+        //if slot wasn't empty, we need to shift elements to the next slots
+        while (true) {
+            long prevValue = t.get(s);
+            t.set(s, prevValue & occupiedBit | entry);
+            if ((prevValue & metadataMask) == 0) break;
+            entry = prevValue & ~occupiedBit | shiftBit;
+            if (headMoved) {
+                entry |= continuationBit;
+                headMoved = false;
+            }
+            s = (s + 1) & maskQ;
+        }
+        size++;
+        return true;
+    }
+
+    // removes the key, returns false if it wasn't found; removing a key which wasn't added may remove another one
+    public boolean remove(K key) {
+        return removeHash(hasher.applyAsLong(key));
+    }
+
+    public boolean remove(long key) {
+        return removeHash(hashLong(hasher, key));
+    }
+
+    public boolean removeHash(long hash) {
+        long fq = getQuotient(hash);
+        long fr = getRemainder(hash);
+        if ((t.get(fq) & occupiedBit) == 0) return false;
+
+        long start = findStartOfRun(fq), p = start;
+        while (true) {
+            long r = t.get(p) >>> metadataBits;
+            if (r == fr) break;
+            if (r > fr) return false;
+            p = (p + 1) & maskQ;
+            if ((t.get(p) & continuationBit) == 0) return false;
+        }
+        boolean head = p == start, last = head && (t.get((p + 1) & maskQ) & continuationBit) == 0;
+        if (last) t.set(fq, t.get(fq) & ~occupiedBit);
+
+        // move the following slots of the cluster back by one, runs which start in their canonical slots stay in place
+        long q = fq, s = p;
+        while (true) {
+            long n = (s + 1) & maskQ, next = t.get(n);
+            if (n == p || (next & shiftBit) == 0) break; // empty slots aren't shifted too
+            if ((next & continuationBit) == 0) { // start of the next run
+                do q = (q + 1) & maskQ; while ((t.get(q) & occupiedBit) == 0);
             }
+            long entry = next & ~(occupiedBit | shiftBit);
+            if (s != q) entry |= shiftBit;
+            t.set(s, t.get(s) & occupiedBit | entry);
+            s = n;
+        }
+        t.set(s, t.get(s) & occupiedBit);
+        // the next remainder of the run becomes its head
+        if (head && !last) t.set(p, t.get(p) & ~continuationBit);
+        size--;
+        return true;
+    }
 
-            // we didn't find the key, so we need to add it
-            size++;
-            int prevValue = t[fq], nextValue;
-            t[fq] = (byte) (prevValue & occupationByte | fr | shift | continuationByte);
-            //if slot wasn't empty, we need to shift elements
-            while ((prevValue & elementMask) != 0) {
-                fq = (fq + 1) & maskQ;
-                nextValue = t[fq];
-                t[fq] = (byte) (prevValue & elementMask | shiftByte | nextValue & occupationByte);
-                prevValue = nextValue;
+    // merges fingerprints of both filters into a new filter with twice as many quotients (if remainders allow it),
+    // both filters must use the same hasher and the same number of quotient and remainder bits in total
+    public QuotientFilter<K> merge(QuotientFilter<K> other) {
+        if (other == null) throw new IllegalArgumentException("Other filter must not be null");
+        int fingerprintBits = bitsQ + bitsR;
+        if (other.bitsQ + other.bitsR != fingerprintBits)
+            throw new IllegalArgumentException("Filters must have the same number of quotient and remainder bits");
+        int bits = Math.max(bitsQ, other.bitsQ);
+        if (bits < MAX_BITS && fingerprintBits - bits > 1) bits++;
+        QuotientFilter<K> result = new QuotientFilter<>(bits, fingerprintBits - bits, maxLoadFactor, resizable, hasher);
+
+        // fingerprints come in ascending order, so they are laid out left to right like in expand,
+        // only the tail which wraps around the end of the table is inserted as usual
+        FingerprintCursor a = new FingerprintCursor(this), b = new FingerprintCursor(other);
+        long prevQ = -1, nextFree = 0, capacity = result.capacity();
+        boolean first = true;
+        long prev = 0;
+        while (a.hasNext() || b.hasNext()) {
+            long f;
+            if (!b.hasNext() || a.hasNext() && Long.compareUnsigned(a.peek(), b.peek()) <= 0) f = a.next();
+            else f = b.next();
+            if (!first && f == prev) continue;
+            first = false;
+            prev = f;
+
+            long q = f >>> result.bitsR, r = f & result.maskR;
+            long pos = Math.max(q, nextFree);
+            if (pos >= capacity) {
+                nextFree = capacity;
+                result.insert(q, r);
+                continue;
             }
-            return true;
+            long entry = r << metadataBits;
+            if (q == prevQ) entry |= continuationBit;
+            else result.t.set(q, result.t.get(q) | occupiedBit);
+            if (pos != q) entry |= shiftBit;
+            result.t.set(pos, result.t.get(pos) | entry);
+            result.size++;
+            prevQ = q;
+            nextFree = pos + 1;
         }
+        return result;
     }
 
-    private int findStartOfRun(int fq) {
-        // find start of the cluster
-        int counter = 1;
-        while ((t[fq] & shiftByte) == shiftByte) { //while not meet start of the cluster
-            if ((t[fq] & occupationByte) == occupationByte) counter++; //count the number of chains in cluster
-            fq = (fq - 1) & maskQ; //go to the previous slot
+    public boolean canExpand() {
+        return bitsQ < MAX_BITS && bitsR > 1;
+    }
+
+    // doubles the capacity moving the highest bit of every remainder into its quotient, original keys are not needed
+    public void expand() {
+        if (!canExpand()) throw new IllegalStateException("QuotientFilter can't be expanded");
+        BitPackedArray old = t;
+        long oldMaskQ = maskQ, oldMaskR = maskR, capacity = old.size();
+        int topBit = bitsR - 1;
+        init(bitsQ + 1, bitsR - 1);
+
+        // start from the slot which is not shifted, so no cluster is cut
+        long start = 0;
+        while (start < capacity && (old.get(start) & shiftBit) != 0) start++;
+
+        // remainders go in the order of quotients and sorted in each run, so new quotients go in sorted order too
+        // positions are not wrapped, so we don't need to compare them cyclically
+        long q = 0, prevQ = -1, nextFree = 0;
+        for (long i = start; i < start + capacity; i++) {
+            long slot = old.get(i & oldMaskQ);
+            if ((slot & metadataMask) == 0) continue;
+            if ((slot & shiftBit) == 0) q = i; // start of the cluster
+            else if ((slot & continuationBit) == 0) { // start of the next run in the cluster
+                do q++; while ((old.get(q & oldMaskQ) & occupiedBit) == 0);
+            }
+
+            long r = slot >>> metadataBits & oldMaskR;
+            long nq = q << 1 | r >>> topBit;
+            long pos = Math.max(nq, nextFree);
+            long entry = (r & maskR) << metadataBits;
+            if (nq == prevQ) entry |= continuationBit;
+            else t.set(nq & maskQ, t.get(nq & maskQ) | occupiedBit);
+            if (pos != nq) entry |= shiftBit;
+            t.set(pos & maskQ, t.get(pos & maskQ) | entry);
+            prevQ = nq;
+            nextFree = pos + 1;
+        }
+    }
+
+    // walks fingerprints (quotient << remainder bits | remainder) of the filter in ascending order
+    private static final class FingerprintCursor {
+        private final BitPackedArray t;
+        private final long mask, capacity;
+        private final int bitsR;
+        private long pos, end, q, next;
+        private boolean hasNext;
+        // runs of the last quotients of the cluster which wraps around the end of the table go last
+        private long[] tail = new long[16];
+        private int tailSize, tailIndex;
+
+        FingerprintCursor(QuotientFilter<?> filter) {
+            this.t = filter.t;
+            this.mask = filter.maskQ;
+            this.capacity = filter.t.size();
+            this.bitsR = filter.bitsR;
+            // start from the start of the cluster which covers slot 0, unwrapped quotients of the wrapped
+            // runs are at least capacity, so the walk from slot 0 is shifted by capacity too
+            long b = 0;
+            if (filter.size != 0) while ((t.get(b) & shiftBit) != 0) b = (b - 1) & mask;
+            this.pos = b == 0 ? capacity : b;
+            this.end = pos + capacity;
+            this.q = pos;
+            advance();
+        }
+
+        boolean hasNext() {
+            return hasNext;
+        }
+
+        long peek() {
+            return next;
+        }
+
+        long next() {
+            long result = next;
+            advance();
+            return result;
         }
 
-        //find the start of the run
-        while (counter != 0) {
-            if ((t[fq] & continuationByte) == 0) { //decrease counter if we meet a start of run
-                if (--counter == 0) break; //if counter is 0, we found the run
+        private void advance() {
+            while (pos < end) {
+                long i = pos++, slot = t.get(i & mask);
+                if ((slot & metadataMask) == 0) continue;
+                if ((slot & shiftBit) == 0) q = i; // start of the cluster
+                else if ((slot & continuationBit) == 0) { // start of the next run in the cluster
+                    do q++; while ((t.get(q & mask) & occupiedBit) == 0);
+                }
+                long r = slot >>> metadataBits;
+                if (q >= capacity) {
+                    next = (q - capacity) << bitsR | r;
+                    hasNext = true;
+                    return;
+                }
+                if (tailSize == tail.length) tail = Arrays.copyOf(tail, tailSize * 2);
+                tail[tailSize++] = q << bitsR | r;
             }
-            fq = (fq + 1) & maskQ; //go to the next slot
+            hasNext = tailIndex < tailSize;
+            if (hasNext) next = tail[tailIndex++];
+        }
+    }
+
+    // bits are counted instead of branching on them, the loops exit only at the start of the cluster and of the run
+    private long findStartOfRun(long fq) {
+        // find start of the cluster counting the runs of quotients before fq
+        long b = fq, runs = 0;
+        while ((t.get(b) & shiftBit) != 0) {
+            b = (b - 1) & maskQ;
+            runs += t.get(b) & occupiedBit;
+        }
+
+        // skip as many runs from the start of the cluster, every slot without continuation starts one
+        long s = b;
+        while (runs > 0) {
+            s = (s + 1) & maskQ;
+            runs -= (~t.get(s) & continuationBit) >>> 1;
         }
-        return fq;
+        return s;
+    }
+
+    // hash of a primitive key, the same as of the boxed Long, the default hasher gets it without boxing;
+    // a custom hasher of keys which are not Longs fails with ClassCastException
+    @SuppressWarnings("unchecked")
+    static long hashLong(ToLongFunction<?> hasher, long key) {
+        if (hasher == DEFAULT_HASHER) return MurmurHash3.hash64x64(key);
+        return ((ToLongFunction<Object>) hasher).applyAsLong(key);
     }
 
-    private int hash(Object key) {
-        return Objects.hashCode(key);
+    // default hasher: integral numbers are hashed by their value, strings by their UTF-8 bytes, other keys by hashCode
+    static long hash64(Object key) {
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte)
+            return MurmurHash3.hash64x64(((Number) key).longValue());
+        if (key instanceof String) return MurmurHash3.hash64xArray(((String) key).getBytes(StandardCharsets.UTF_8));
+        return MurmurHash3.hash64x64(Objects.hashCode(key));
     }
 
-    private int getQuotient(int hash) {
-        return hash >>> shiftQ & maskQ;
+    // the lowest bitsR bits are the remainder, the next bitsQ bits are the quotient
+    private long getQuotient(long hash) {
+        return hash >>> bitsR & maskQ;
     }
 
-    private byte getRemainder(int hash) {
-        return (byte) (hash & maskR);
+    private long getRemainder(long hash) {
+        return hash & maskR;
     }
 }
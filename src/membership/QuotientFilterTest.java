@@ -3,8 +3,11 @@ package membership;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import prng.XorShift32;
+import prng.XorShift64;
 import utils.RandomGenerator;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -108,6 +111,117 @@ class QuotientFilterTest {
         });
     }
 
+    @Test
+    void testContainsWhenFull() {
+        IntStream.rangeClosed(1, 20).parallel().forEach(t -> {
+            QuotientFilter<Integer> filter = new QuotientFilter<>(bitsForFilter);
+            XorShift32 random = new XorShift32(t);
+            int[] added = new int[capacity];
+            int counter = 0;
+            while (!filter.isFull()) {
+                int key = random.nextInteger();
+                if (filter.add(key)) added[counter++] = key;
+            }
+            for (int key : added) assertTrue(filter.contains(key));
+            for (int key : added) assertFalse(filter.add(key));
+            assertThrows(RuntimeException.class, () -> {
+                //noinspection InfiniteLoopStatement
+                while (true) filter.add(random.nextInteger());
+            });
+        });
+    }
+
+    @Test
+    void testExpand() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            QuotientFilter<Integer> filter = new QuotientFilter<>(bitsForFilter);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            long size = filter.size();
+
+            filter.expand();
+            assertEquals(capacity * 2, filter.capacity());
+            assertEquals(4, filter.remainderBits());
+            assertEquals(size, filter.size());
+
+            random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) assertTrue(filter.contains(random.nextInteger()));
+            random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) assertFalse(filter.add(random.nextInteger()));
+        });
+    }
+
+    @Test
+    void testResizable() {
+        IntStream.rangeClosed(1, 100).parallel().forEach(t -> {
+            int elements = 200;
+            QuotientFilter<Integer> filter = new QuotientFilter<>(4, 0.75);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < elements; i++) filter.add(random.nextInteger());
+            assertEquals(256, filter.capacity());
+            assertEquals(1, filter.remainderBits());
+            assertFalse(filter.canExpand());
+
+            random = new XorShift32(t);
+            for (int i = 0; i < elements; i++) assertTrue(filter.contains(random.nextInteger()));
+        });
+    }
+
+    @Test
+    void testResizableErrorRate() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            QuotientFilter<Integer> filter = new QuotientFilter<>(bitsForFilter - 2, 0.9);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            assertEquals(capacity * 2, filter.capacity());
+            int fails = 0;
+            for (int i = numberOfElements; i < numberOfElements * 2; i++)
+                if (filter.contains(random.nextInteger())) fails++;
+            assertTrue(fails < numberOfElements * maxErrorRate * 4);
+        });
+    }
+
+    @Test
+    void testRemainderBits() {
+        IntStream.of(1, 4, 8, 13, 16, 31, 32, 33, 47, 52).parallel().forEach(r -> {
+            QuotientFilter<Integer> filter = new QuotientFilter<>(bitsForFilter, r);
+            assertEquals(r, filter.remainderBits());
+            XorShift32 random = new XorShift32(r);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            random = new XorShift32(r);
+            for (int i = 0; i < numberOfElements; i++) assertTrue(filter.contains(random.nextInteger()));
+        });
+        assertThrows(IllegalArgumentException.class, () -> new QuotientFilter<>(bitsForFilter, 0));
+        assertThrows(IllegalArgumentException.class, () -> new QuotientFilter<>(bitsForFilter, 61));
+        assertThrows(IllegalArgumentException.class, () -> new QuotientFilter<>(40, 25));
+    }
+
+    @Test
+    void testErrorRateForLongRemainder() {
+        IntStream.rangeClosed(1, 100).parallel().forEach(t -> {
+            QuotientFilter<Integer> filter = new QuotientFilter<>(bitsForFilter, 12);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            int fails = 0;
+            for (int i = numberOfElements; i < numberOfElements * 2; i++)
+                if (filter.contains(random.nextInteger())) fails++;
+            assertTrue(fails <= numberOfElements / 500);
+        });
+    }
+
+    @Test
+    void testExpandLongRemainder() {
+        IntStream.rangeClosed(1, 100).parallel().forEach(t -> {
+            QuotientFilter<Integer> filter = new QuotientFilter<>(8, 20, 0.9);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            assertEquals(2 << bitsForFilter, filter.capacity());
+            assertEquals(15, filter.remainderBits());
+            random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) assertTrue(filter.contains(random.nextInteger()));
+        });
+    }
+
     @Test
     @Disabled
     void testLargeFilter() {
@@ -126,4 +240,161 @@ class QuotientFilterTest {
         RandomGenerator.setSeed(seed);
         for (int i = 0; i < numberOfStrings; i++) assertFalse(filter.add(RandomGenerator.getRandomString(10)));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testErrorRateForSequentialKeys() {
+        IntStream.rangeClosed(1, 100).parallel().forEach(t -> {
+            QuotientFilter<Long> filter = new QuotientFilter<>(bitsForFilter);
+            long from = (long) t * numberOfElements * 2;
+            for (long key = from; key < from + numberOfElements; key++) filter.add(Long.valueOf(key));
+            for (long key = from; key < from + numberOfElements; key++) assertTrue(filter.contains(key));
+            int fails = 0;
+            for (long key = from + numberOfElements; key < from + numberOfElements * 2; key++)
+                if (filter.contains(Long.valueOf(key))) fails++;
+            assertTrue(fails < numberOfElements * maxErrorRate);
+        });
+    }
+
+    @Test
+    void testPrimitiveAndBoxedKeys() {
+        QuotientFilter<Object> filter = new QuotientFilter<>(bitsForFilter);
+        XorShift32 random = new XorShift32(1);
+        for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+        random = new XorShift32(1);
+        for (int i = 0; i < numberOfElements; i++) {
+            int key = random.nextInteger();
+            assertTrue(filter.contains(Integer.valueOf(key)));
+            assertTrue(filter.contains(Long.valueOf(key)));
+        }
+    }
+
+    @Test
+    void testCustomHasher() {
+        QuotientFilter<String> filter = new QuotientFilter<>(bitsForFilter, 8, String::length);
+        assertTrue(filter.add("abc"));
+        assertTrue(filter.contains("xyz"));
+        assertFalse(filter.add("def"));
+        assertFalse(filter.contains("abcd"));
+        assertThrows(IllegalArgumentException.class, () -> new QuotientFilter<String>(bitsForFilter, 8, null));
+    }
+
+    @Test
+    void testPrimitiveKeysUseCustomHasher() {
+        // identity hasher, keys added boxed are found as primitives and the other way round
+        QuotientFilter<Long> filter = new QuotientFilter<>(10, 8, key -> key);
+        for (long key = 0; key < 500; key++) {
+            if (key % 2 == 0) assertTrue(filter.add(Long.valueOf(key)));
+            else assertTrue(filter.add(key));
+        }
+        for (long key = 0; key < 500; key++) {
+            assertTrue(filter.contains(key));
+            assertTrue(filter.contains(Long.valueOf(key)));
+        }
+        assertFalse(filter.contains(500L));
+        for (long key = 0; key < 500; key += 2) assertTrue(filter.remove(key));
+        for (long key = 1; key < 500; key += 2) assertTrue(filter.remove(Long.valueOf(key)));
+        assertTrue(filter.isEmpty());
+        QuotientFilter<String> strings = new QuotientFilter<>(10, 8, String::length);
+        assertThrows(ClassCastException.class, () -> strings.add(1L));
+    }
+
+    @Test
+    void testRemove() {
+        // identity hasher over quotient and remainder bits, so there are no false positives
+        int bits = 8, remainderBits = 4;
+        long mask = (1L << (bits + remainderBits)) - 1;
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            QuotientFilter<Long> filter = new QuotientFilter<>(bits, remainderBits, key -> key);
+            Set<Long> keys = new HashSet<>();
+            XorShift64 random = new XorShift64(t);
+            for (int i = 0; i < 5_000; i++) {
+                long key = random.nextLong() & mask;
+                if (keys.size() < (1 << bits) * 0.95 && (random.nextLong() & 1) == 0) {
+                    assertEquals(keys.add(key), filter.add(Long.valueOf(key)));
+                } else {
+                    assertEquals(keys.remove(key), filter.remove(Long.valueOf(key)));
+                }
+                assertEquals(keys.size(), filter.size());
+            }
+            for (long key = 0; key <= mask; key++) assertEquals(keys.contains(key), filter.contains(Long.valueOf(key)));
+            for (long key : keys) assertTrue(filter.remove(Long.valueOf(key)));
+            assertTrue(filter.isEmpty());
+        });
+    }
+
+    @Test
+    void testRemoveWhenFull() {
+        IntStream.rangeClosed(1, 100).parallel().forEach(t -> {
+            QuotientFilter<Integer> filter = new QuotientFilter<>(bitsForFilter);
+            XorShift32 random = new XorShift32(t);
+            int[] added = new int[capacity];
+            int counter = 0;
+            while (!filter.isFull()) {
+                int key = random.nextInteger();
+                if (filter.add(key)) added[counter++] = key;
+            }
+            for (int i = 0; i < capacity; i += 2) assertTrue(filter.remove(added[i]));
+            assertEquals(capacity / 2, filter.size());
+            for (int i = 1; i < capacity; i += 2) assertTrue(filter.contains(added[i]));
+        });
+    }
+
+    @Test
+    void testMerge() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            QuotientFilter<Integer> first = new QuotientFilter<>(bitsForFilter - 1, 8);
+            QuotientFilter<Integer> second = new QuotientFilter<>(bitsForFilter, 7);
+            QuotientFilter<Integer> expected = new QuotientFilter<>(bitsForFilter + 1, 6);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < capacity * 0.3; i++) {
+                int key = random.nextInteger();
+                first.add(key);
+                expected.add(key);
+            }
+            for (int i = 0; i < capacity * 0.9; i++) {
+                int key = random.nextInteger();
+                second.add(key);
+                expected.add(key);
+                // shared keys
+                if (i % 10 == 0) first.add(key);
+            }
+
+            QuotientFilter<Integer> merged = first.merge(second);
+            assertEquals(expected.capacity(), merged.capacity());
+            assertEquals(expected.remainderBits(), merged.remainderBits());
+            assertEquals(expected.size(), merged.size());
+            // same fingerprints give the same answers
+            random = new XorShift32(t);
+            for (int i = 0; i < capacity * 4; i++) {
+                int key = random.nextInteger();
+                assertEquals(expected.contains(key), merged.contains(key));
+            }
+            assertThrows(IllegalArgumentException.class, () -> first.merge(new QuotientFilter<>(bitsForFilter, 8)));
+            assertThrows(IllegalArgumentException.class, () -> first.merge(null));
+        });
+    }
+
+    @Test
+    void testMergeWrapped() {
+        // keys of the last quotients wrap around the end of both filters
+        int bits = 6, remainderBits = 6;
+        QuotientFilter<Long> first = new QuotientFilter<>(bits, remainderBits, key -> key);
+        QuotientFilter<Long> second = new QuotientFilter<>(bits, remainderBits, key -> key);
+        Set<Long> keys = new HashSet<>();
+        for (long key = 60 << remainderBits; key < 64 << remainderBits; key += 5) {
+            first.add(Long.valueOf(key));
+            second.add(Long.valueOf(key ^ 1));
+            keys.add(key);
+            keys.add(key ^ 1);
+        }
+        for (long key = 0; key < 10; key++) {
+            second.add(Long.valueOf(key << remainderBits));
+            keys.add(key << remainderBits);
+        }
+        QuotientFilter<Long> merged = first.merge(second);
+        assertEquals(128, merged.capacity());
+        assertEquals(keys.size(), merged.size());
+        for (long key = 0; key < 1 << (bits + remainderBits); key++)
+            assertEquals(keys.contains(key), merged.contains(Long.valueOf(key)));
+    }
+}
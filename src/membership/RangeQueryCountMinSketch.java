@@ -3,6 +3,7 @@ package membership;
 import hash.MurmurHash3;
 
 import java.util.Arrays;
+import java.util.function.Function;
 
 import static utils.IntegerUtils.nextPow2;
 
@@ -11,14 +12,31 @@ public class RangeQueryCountMinSketch {
     private static final int MAX_D = 32;
     private static final double MIN_EPS = 1.0 / MAX_W;
     private static final double MAX_CONFIDENCE = 1 - 1.0 / Math.exp(MAX_D);
-    private final int[][][] matrix;
-    private final int height, depth, mask;
-    private final long minAcceptedValue, maxAcceptedValue, unsignedRange;
-    private int count;
+    private static final int MAX_LEVEL_SIZE = Integer.MAX_VALUE - 8;
+    // level h keeps counts of value >>> h, levels with small domain keep a single row of exact counters
+    // level height is the root, its only counter is the total count
+    private final Counters counters;
+    private final boolean[] exact;
+    private final int[] masks;
+    private final int height, depth;
+    private final long minAcceptedValue, maxAcceptedValue;
 
     public RangeQueryCountMinSketch(int width, final int depth, final long minAcceptedValue, final long maxAcceptedValue) {
-        if (width <= 0) throw new IllegalArgumentException("Width must be positive");
-        if (width > MAX_W) throw new IllegalArgumentException("Width must be less than 2^30");
+        this(new int[]{width}, depth, minAcceptedValue, maxAcceptedValue);
+    }
+
+    // widths[h] is the width of level h, levels above widths.length use the last width
+    public RangeQueryCountMinSketch(int[] widths, final int depth, final long minAcceptedValue, final long maxAcceptedValue) {
+        this(widths, depth, minAcceptedValue, maxAcceptedValue, HeapCounters::new);
+    }
+
+    RangeQueryCountMinSketch(int[] widths, int depth, long minAcceptedValue, long maxAcceptedValue,
+                             Function<int[], Counters> storage) {
+        if (widths == null || widths.length == 0) throw new IllegalArgumentException("Widths must not be empty");
+        for (int width : widths) {
+            if (width <= 0) throw new IllegalArgumentException("Width must be positive");
+            if (width > MAX_W) throw new IllegalArgumentException("Width must be less than 2^30");
+        }
         if (depth <= 0) throw new IllegalArgumentException("Depth must be positive");
         if (depth >= MAX_D) throw new IllegalArgumentException("Depth must be less than 16");
         if (minAcceptedValue >= maxAcceptedValue)
@@ -36,80 +54,62 @@ public class RangeQueryCountMinSketch {
             tmpHeight++;
         }
         this.height = tmpHeight;
-        this.unsignedRange = tmpRangeMax;
-
         this.depth = depth;
-        width = nextPow2(width);
-        this.mask = width - 1;
-        matrix = new int[height][this.depth][width];
+
+        int[] sizes = new int[height + 1];
+        exact = new boolean[height + 1];
+        masks = new int[height + 1];
+        for (int h = 0; h <= height; h++) {
+            int width = nextPow2(widths[Math.min(h, widths.length - 1)]);
+            // level h has 2^(height - h) nodes, if they fit into the memory of the sketch we count them exactly
+            int levelBits = height - h;
+            if (levelBits < 31 && 1L << levelBits <= (long) depth * width) {
+                exact[h] = true;
+                masks[h] = (1 << levelBits) - 1;
+                sizes[h] = 1 << levelBits;
+            } else {
+                if ((long) depth * width > MAX_LEVEL_SIZE)
+                    throw new IllegalArgumentException("Depth * width must be less than 2^31");
+                masks[h] = width - 1;
+                sizes[h] = depth * width;
+            }
+        }
+        counters = storage.apply(sizes);
     }
 
     public RangeQueryCountMinSketch(double eps, double confidence, final long minAcceptedValue, final long maxAcceptedValue) {
+        this(widthFor(eps), depthFor(confidence), minAcceptedValue, maxAcceptedValue);
+    }
+
+    static int widthFor(double eps) {
         if (eps <= 0 || eps >= 1) throw new IllegalArgumentException("eps must be in (0, 1)");
         if (eps < MIN_EPS) throw new IllegalArgumentException("eps must be greater than 2^-30");
+        return nextPow2((int) Math.ceil(Math.E / eps));
+    }
+
+    static int depthFor(double confidence) {
         if (confidence <= 0 || confidence >= 1) throw new IllegalArgumentException("conf must be in (0, 1)");
         if (confidence >= MAX_CONFIDENCE) throw new IllegalArgumentException("1-conf must be greater than e^-32");
-        if (minAcceptedValue >= maxAcceptedValue)
-            throw new IllegalArgumentException("Range start must be less than range end");
-
-        int width = nextPow2((int) Math.ceil(Math.E / eps));
-        int depth = (int) Math.ceil(Math.log(1 / (1 - confidence)));
-
-        this.minAcceptedValue = minAcceptedValue;
-        this.maxAcceptedValue = maxAcceptedValue;
-
-        //calculate required height
-        long range = maxAcceptedValue - minAcceptedValue;
-        long tmpRangeMax = 1;
-        int tmpHeight = 1;
-        while (Long.compareUnsigned(tmpRangeMax, range) < 0) {
-            tmpRangeMax = tmpRangeMax << 1 | 1;
-            tmpHeight++;
-        }
-        this.height = tmpHeight;
-        this.unsignedRange = tmpRangeMax;
-
-        this.depth = depth;
-        width = nextPow2(width);
-        this.mask = width - 1;
-        matrix = new int[height][this.depth][width];
+        return (int) Math.ceil(Math.log(1 / (1 - confidence)));
     }
 
     public void add(long value) {
-        if (value < minAcceptedValue || value > maxAcceptedValue)
-            throw new IllegalArgumentException("Value must be within range");
-        if (count != Integer.MAX_VALUE) count++;
-
-        //next we will treat the value as an unsigned long
-        value -= minAcceptedValue;
-        for (int i = 0; i < height; i++) {
-            long index = value >>> i;
-            for (int j = 0; j < depth; j++) {
-                int hash = hash(index, j) & mask;
-                if (matrix[i][j][hash] != Integer.MAX_VALUE) matrix[i][j][hash]++;
-            }
-        }
+        add(value, 1);
     }
 
-
     public void add(long value, int amount) {
         if (value < minAcceptedValue || value > maxAcceptedValue)
             throw new IllegalArgumentException("Value must be within range");
         if (amount <= 0) throw new IllegalArgumentException("Amount must be positive");
 
-        if (count >= Integer.MAX_VALUE - amount) count = Integer.MAX_VALUE;
-        else count += amount;
-
         value -= minAcceptedValue;
         //next we will treat the value as an unsigned long
         for (int i = 0; i < height; i++) {
             long index = value >>> i;
-            for (int j = 0; j < depth; j++) {
-                int hash = hash(index, j) & mask;
-                if (matrix[i][j][hash] >= Integer.MAX_VALUE - amount) count = Integer.MAX_VALUE;
-                else matrix[i][j][hash] += amount;
-            }
+            if (exact[i]) counters.add(i, (int) index, amount);
+            else for (int j = 0; j < depth; j++) counters.add(i, j << shift(i) | hash(index, j, masks[i]), amount);
         }
+        counters.add(height, 0, amount);
     }
 
     public boolean contains(long value) {
@@ -118,26 +118,17 @@ public class RangeQueryCountMinSketch {
 
         // we can only check the first Count-Min sketch, but to reduce false-positive errors we check all of them
         for (int i = 0; i < height; i++) {
-            long index = value >>> i;
-            for (int j = 0; j < depth; j++) {
-                int hash = hash(index, j) & mask;
-                if (matrix[i][j][hash] == 0) return false;
-            }
+            if (estimate(i, value >>> i) == 0) return false;
         }
         return true;
     }
 
     public void clear() {
-        count = 0;
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < depth; j++) {
-                Arrays.fill(matrix[i][j], 0);
-            }
-        }
+        counters.clear();
     }
 
     public int getCount() {
-        return count;
+        return counters.get(height, 0);
     }
 
     public int getCount(long value) {
@@ -146,45 +137,282 @@ public class RangeQueryCountMinSketch {
         int count = Integer.MAX_VALUE;
 
         // we can only check the first Count-Min sketch, but to reduce over-estimation errors we check all of them
-        for (int i = 0; i < height; i++) {
-            long index = value >>> i;
-            for (int j = 0; j < depth; j++) {
-                int hash = hash(index, j) & mask;
-                if (matrix[i][j][hash] < count) count = matrix[i][j][hash];
-            }
+        for (int i = 0; i < height && count != 0; i++) {
+            count = Math.min(count, estimate(i, value >>> i));
         }
         return count;
     }
 
-    public int getCount(long leftInclusive, long rightInclusive) {
+    // number of counters allocated over all levels
+    public long counters() {
+        long ans = 0;
+        for (int h = 0; h <= height; h++) ans += counters.size(h);
+        return ans;
+    }
+
+    long minAcceptedValue() {
+        return minAcceptedValue;
+    }
+
+    long maxAcceptedValue() {
+        return maxAcceptedValue;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    // widths of the levels below the root, a sketch created with them has exactly the same layout
+    int[] widths() {
+        int[] ans = new int[height];
+        for (int h = 0; h < height; h++) ans[h] = masks[h] + 1;
+        return ans;
+    }
+
+    Counters storage() {
+        return counters;
+    }
+
+    // adds all values of another sketch with the same range and layout
+    public void merge(RangeQueryCountMinSketch other) {
+        if (other == null) throw new IllegalArgumentException("Other must not be null");
+        if (other.minAcceptedValue != minAcceptedValue || other.maxAcceptedValue != maxAcceptedValue)
+            throw new IllegalArgumentException("Sketches must have the same range");
+        if (other.depth != depth || !Arrays.equals(other.masks, masks) || !Arrays.equals(other.exact, exact))
+            throw new IllegalArgumentException("Sketches must have the same width and depth");
+        for (int h = 0; h <= height; h++) {
+            int size = counters.size(h);
+            for (int i = 0; i < size; i++) {
+                int value = other.counters.get(h, i);
+                if (value != 0) counters.add(h, i, value);
+            }
+        }
+    }
+
+    public long getCount(long leftInclusive, long rightInclusive) {
         if (leftInclusive > rightInclusive)
             throw new IllegalArgumentException("Left must be less than or equal to right");
-        if (rightInclusive < minAcceptedValue || leftInclusive > maxAcceptedValue) return 0;
-        if (leftInclusive <= minAcceptedValue && rightInclusive >= maxAcceptedValue) return count;
+        return getCount(leftInclusive, rightInclusive, null);
+    }
+
+    public long[] getCounts(long[] leftsInclusive, long[] rightsInclusive) {
+        if (leftsInclusive == null || rightsInclusive == null)
+            throw new IllegalArgumentException("Bounds must not be null");
+        if (leftsInclusive.length != rightsInclusive.length)
+            throw new IllegalArgumentException("Bounds must have the same length");
+        for (int i = 0; i < leftsInclusive.length; i++) {
+            if (leftsInclusive[i] > rightsInclusive[i])
+                throw new IllegalArgumentException("Left must be less than or equal to right");
+        }
 
-        if (leftInclusive <= minAcceptedValue) leftInclusive = 0;
-        else leftInclusive -= minAcceptedValue;
+        // neighbouring ranges share most of their dyadic nodes, so estimate of each node is calculated only once
+        NodeCache cache = new NodeCache((long) leftsInclusive.length * 2 * height);
+        long[] ans = new long[leftsInclusive.length];
+        for (int i = 0; i < ans.length; i++) ans[i] = getCount(leftsInclusive[i], rightsInclusive[i], cache);
+        return ans;
+    }
 
-        rightInclusive -= minAcceptedValue;
-        return getCount(leftInclusive, rightInclusive, 0, unsignedRange, height);
+    // estimated number of added values which are less than or equal to the given one
+    public long rank(long value) {
+        if (value < minAcceptedValue) return 0;
+        int count = getCount();
+        if (value >= maxAcceptedValue) return count;
+        return Math.min(count, getCount(minAcceptedValue, value, null));
     }
 
-    private int getCount(long ql, long qr, long l, long r, int h) {
-        if (Long.compareUnsigned(ql, l) <= 0 && Long.compareUnsigned(qr, r) >= 0) {
-            long index = l >>> h;
-            int ans = Integer.MAX_VALUE;
-            for (int j = 0; j < depth; j++) {
-                int hash = hash(index, j) & mask;
-                if (matrix[h][j][hash] < ans) ans = matrix[h][j][hash];
+    // smallest value whose estimated rank is at least q * count
+    public long quantile(double q) {
+        if (q < 0 || q > 1) throw new IllegalArgumentException("q must be in [0, 1]");
+        int count = getCount();
+        if (count == 0) throw new IllegalStateException("Sketch is empty");
+        long target = Math.max(1, (long) Math.ceil(q * count));
+
+        // go down from the root choosing the child which contains the target rank
+        long index = 0, before = 0;
+        for (int h = height - 1; h >= 0; h--) {
+            index <<= 1;
+            int left = estimate(h, index);
+            if (before + left < target) {
+                before += left;
+                index |= 1;
             }
+        }
+        if (Long.compareUnsigned(index, maxAcceptedValue - minAcceptedValue) > 0) return maxAcceptedValue;
+        return index + minAcceptedValue;
+    }
+
+    // estimated fractions of added values which are less than or equal to each split point, the last one is always 1
+    public double[] cdf(long[] splitPoints) {
+        if (splitPoints == null) throw new IllegalArgumentException("Split points must not be null");
+        for (int i = 1; i < splitPoints.length; i++) {
+            if (splitPoints[i - 1] >= splitPoints[i])
+                throw new IllegalArgumentException("Split points must be strictly increasing");
+        }
+        int count = getCount();
+        if (count == 0) throw new IllegalStateException("Sketch is empty");
+
+        long[] lefts = new long[splitPoints.length];
+        Arrays.fill(lefts, Long.MIN_VALUE);
+        long[] ranks = getCounts(lefts, splitPoints);
+
+        double[] ans = new double[splitPoints.length + 1];
+        long prev = 0;
+        for (int i = 0; i < splitPoints.length; i++) {
+            // over-estimation can break monotonicity, so we restore it
+            prev = Math.min(count, Math.max(prev, ranks[i]));
+            ans[i] = (double) prev / count;
+        }
+        ans[splitPoints.length] = 1;
+        return ans;
+    }
+
+    private long getCount(long leftInclusive, long rightInclusive, NodeCache cache) {
+        if (rightInclusive < minAcceptedValue || leftInclusive > maxAcceptedValue) return 0;
+        if (leftInclusive <= minAcceptedValue && rightInclusive >= maxAcceptedValue) return getCount();
+
+        //next we will treat the bounds as unsigned longs
+        long l = leftInclusive <= minAcceptedValue ? 0 : leftInclusive - minAcceptedValue;
+        long r = (rightInclusive >= maxAcceptedValue ? maxAcceptedValue : rightInclusive) - minAcceptedValue;
+
+        // go up through the levels and take the nodes which are not fully covered by their parent
+        long ans = 0;
+        for (int h = 0; h < height; h++) {
+            if (l == r) return ans + estimate(h, l, cache);
+            if ((l & 1) == 1) ans += estimate(h, l++, cache); // l < r, so it can't overflow
+            if ((r & 1) == 0) ans += estimate(h, r--, cache); // r > l >= 0, so it can't underflow
+            if (Long.compareUnsigned(l, r) > 0) return ans;
+            l >>>= 1;
+            r >>>= 1;
+        }
+        // the whole range is covered by the root
+        return ans + getCount();
+    }
+
+    private int estimate(int h, long index, NodeCache cache) {
+        if (cache != null) {
+            int slot = cache.find(h, index);
+            if (slot >= 0 && cache.levels[slot] != 0) return cache.values[slot];
+            int ans = estimate(h, index);
+            if (slot >= 0) cache.put(slot, h, index, ans);
             return ans;
-        } else if (Long.compareUnsigned(ql, r) > 0 || Long.compareUnsigned(qr, l) < 0) return 0;
+        }
+        return estimate(h, index);
+    }
+
+    private int estimate(int h, long index) {
+        if (exact[h]) return counters.get(h, (int) index);
+        int ans = Integer.MAX_VALUE;
+        for (int j = 0; j < depth && ans != 0; j++) {
+            ans = Math.min(ans, counters.get(h, j << shift(h) | hash(index, j, masks[h])));
+        }
+        return ans;
+    }
 
-        long mid = (l + r) >>> 1;
-        return getCount(ql, qr, l, mid, h - 1) + getCount(ql, qr, mid + 1, r, h - 1);
+    // rows of hashed levels are stored one after another, width of the row is a power of two
+    private int shift(int h) {
+        return Integer.bitCount(masks[h]);
     }
 
-    private int hash(long value, int seed) {
+    private int hash(long value, int seed, int mask) {
         return MurmurHash3.hash32x64(value, seed) & mask;
     }
+
+    // open addressing table for estimates of dyadic nodes, used by batch queries; it starts small and doubles as the
+    // distinct nodes come, up to what all the nodes of the batch would take
+    private static final class NodeCache {
+        private static final int INITIAL_CAPACITY = 64;
+        private static final int MAX_CAPACITY = 1 << 20;
+        private final int maxCapacity;
+        private long[] indexes;
+        private int[] levels; // level + 1, 0 means empty slot
+        private int[] values;
+        private int mask, size;
+
+        private NodeCache(long maxNodes) {
+            this.maxCapacity = nextPow2((int) Math.max(2, Math.min(MAX_CAPACITY, 2 * maxNodes)));
+            allocate(Math.min(INITIAL_CAPACITY, maxCapacity));
+        }
+
+        // returns slot containing the node or empty slot for it, -1 if the node is absent and cache is full
+        private int find(int h, long index) {
+            int slot = MurmurHash3.hash32x64(index, h) & mask;
+            while (levels[slot] != 0) {
+                if (levels[slot] == h + 1 && indexes[slot] == index) return slot;
+                slot = (slot + 1) & mask;
+            }
+            return size < maxCapacity >>> 1 ? slot : -1;
+        }
+
+        private void put(int slot, int h, long index, int value) {
+            levels[slot] = h + 1;
+            indexes[slot] = index;
+            values[slot] = value;
+            size++;
+            if (size > mask >>> 1 && mask + 1 < maxCapacity) grow();
+        }
+
+        private void grow() {
+            long[] oldIndexes = indexes;
+            int[] oldLevels = levels, oldValues = values;
+            allocate((mask + 1) << 1);
+            for (int i = 0; i < oldLevels.length; i++) {
+                if (oldLevels[i] == 0) continue;
+                int slot = MurmurHash3.hash32x64(oldIndexes[i], oldLevels[i] - 1) & mask;
+                while (levels[slot] != 0) slot = (slot + 1) & mask;
+                levels[slot] = oldLevels[i];
+                indexes[slot] = oldIndexes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        private void allocate(int capacity) {
+            indexes = new long[capacity];
+            levels = new int[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    // storage of the counters, counters of level h are indexed from 0 to size(h) - 1
+    interface Counters {
+        int size(int level);
+
+        int get(int level, int index);
+
+        // saturating addition of a positive amount
+        void add(int level, int index, int amount);
+
+        void clear();
+    }
+
+    private static final class HeapCounters implements Counters {
+        private final int[][] levels;
+
+        private HeapCounters(int[] sizes) {
+            levels = new int[sizes.length][];
+            for (int h = 0; h < sizes.length; h++) levels[h] = new int[sizes[h]];
+        }
+
+        @Override
+        public int size(int level) {
+            return levels[level].length;
+        }
+
+        @Override
+        public int get(int level, int index) {
+            return levels[level][index];
+        }
+
+        @Override
+        public void add(int level, int index, int amount) {
+            int[] counters = levels[level];
+            if (counters[index] >= Integer.MAX_VALUE - amount) counters[index] = Integer.MAX_VALUE;
+            else counters[index] += amount;
+        }
+
+        @Override
+        public void clear() {
+            for (int[] level : levels) Arrays.fill(level, 0);
+        }
+    }
 }
@@ -6,7 +6,9 @@ import prng.XorShiftN;
 
 import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class RangeQueryCountMinSketchTest {
@@ -47,6 +49,154 @@ class RangeQueryCountMinSketchTest {
         }
     }
 
+    @Test
+    void testRangeQueryDoesNotOverflow() {
+        RangeQueryCountMinSketch cms = new RangeQueryCountMinSketch(m, k, 0, n - 1);
+        cms.add(1, Integer.MAX_VALUE - 1);
+        cms.add(2, Integer.MAX_VALUE - 1);
+        assertTrue(cms.getCount(1, 2) >= 2L * (Integer.MAX_VALUE - 1));
+    }
+
+    @Test
+    void testRangeQueryFullDomain() {
+        RangeQueryCountMinSketch cms = new RangeQueryCountMinSketch(m, k, Long.MIN_VALUE, Long.MAX_VALUE);
+        long[] values = {Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE};
+        for (long value : values) cms.add(value);
+
+        assertEquals(values.length, cms.getCount(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertTrue(cms.getCount(Long.MIN_VALUE, Long.MIN_VALUE) >= 1);
+        assertTrue(cms.getCount(Long.MAX_VALUE, Long.MAX_VALUE) >= 1);
+        assertTrue(cms.getCount(Long.MIN_VALUE + 1, Long.MAX_VALUE) >= 4);
+        assertTrue(cms.getCount(Long.MIN_VALUE, Long.MAX_VALUE - 1) >= 4);
+        assertTrue(cms.getCount(-1, 1) >= 3);
+    }
+
+    @Test
+    void testBatchRangeQuery() {
+        RangeQueryCountMinSketch cms = new RangeQueryCountMinSketch(m, k, 0, n - 1);
+        for (int i = 0; i < n; i++) cms.add(i);
+
+        int queries = n * 4;
+        long[] lefts = new long[queries], rights = new long[queries];
+        Random random = new Random();
+        for (int i = 0; i < queries; i++) {
+            int a = random.nextInt(n), b = random.nextInt(n);
+            lefts[i] = Math.min(a, b);
+            rights[i] = Math.max(a, b);
+        }
+
+        long[] counts = cms.getCounts(lefts, rights);
+        for (int i = 0; i < queries; i++) assertEquals(cms.getCount(lefts[i], rights[i]), counts[i]);
+
+        // a small batch, the node cache stays small
+        assertArrayEquals(new long[]{cms.getCount(0, n - 1), cms.getCount(5, 10)},
+                cms.getCounts(new long[]{0, 5}, new long[]{n - 1, 10}));
+    }
+
+    @Test
+    void testRank() {
+        RangeQueryCountMinSketch cms = new RangeQueryCountMinSketch(m, k, 0, n - 1);
+        for (int i = 0; i < n; i++) cms.add(i);
+
+        assertEquals(0, cms.rank(-1));
+        assertEquals(n, cms.rank(n - 1));
+        for (int i = 0; i < n; i++) assertTrue(cms.rank(i) >= i + 1);
+    }
+
+    @Test
+    void testQuantile() {
+        RangeQueryCountMinSketch cms = new RangeQueryCountMinSketch(m, k, 0, n - 1);
+        for (int i = 0; i < n; i++) cms.add(i);
+
+        assertEquals(0, cms.quantile(0));
+        for (int p = 1; p <= 100; p++) {
+            long expected = (long) Math.ceil(p / 100.0 * n) - 1;
+            assertTrue(Math.abs(cms.quantile(p / 100.0) - expected) <= n * 0.01);
+        }
+    }
+
+    @Test
+    void testQuantileFullDomain() {
+        RangeQueryCountMinSketch cms = new RangeQueryCountMinSketch(m, k, Long.MIN_VALUE, Long.MAX_VALUE);
+        for (int i = 1; i <= 100; i++) cms.add(i * 1_000_000L);
+
+        assertEquals(1_000_000L, cms.quantile(0));
+        assertEquals(50_000_000L, cms.quantile(0.5));
+        assertEquals(99_000_000L, cms.quantile(0.99));
+        assertEquals(100_000_000L, cms.quantile(1));
+    }
+
+    @Test
+    void testCdf() {
+        RangeQueryCountMinSketch cms = new RangeQueryCountMinSketch(m, k, 0, n - 1);
+        for (int i = 0; i < n; i++) cms.add(i);
+
+        long[] splitPoints = {-1, n / 4 - 1, n / 2 - 1, n - 1, n};
+        double[] cdf = cms.cdf(splitPoints);
+        assertEquals(splitPoints.length + 1, cdf.length);
+        assertEquals(0, cdf[0]);
+        assertTrue(Math.abs(cdf[1] - 0.25) <= 0.01);
+        assertTrue(Math.abs(cdf[2] - 0.5) <= 0.01);
+        assertEquals(1, cdf[3]);
+        assertEquals(1, cdf[4]);
+        assertEquals(1, cdf[5]);
+    }
+
+    @Test
+    void testExactLevels() {
+        // the whole domain fits into the memory of one level, so all counts are exact
+        RangeQueryCountMinSketch cms = new RangeQueryCountMinSketch(n, k, 0, n - 1);
+        assertEquals(2L * n - 1, cms.counters());
+
+        for (int i = 0; i < n; i++) cms.add(i, i % 7 + 1);
+        for (int i = 0; i < n; i++) assertEquals(i % 7 + 1, cms.getCount(i));
+
+        long expected = 0;
+        for (int i = 0; i < n; i++) {
+            expected += i % 7 + 1;
+            assertEquals(expected, cms.getCount(0, i));
+            assertEquals(expected, cms.rank(i));
+        }
+    }
+
+    @Test
+    void testLevelWidths() {
+        int[] widths = {m, m >> 2, m >> 4};
+        RangeQueryCountMinSketch narrow = new RangeQueryCountMinSketch(widths, k, minAcceptedValue, maxAcceptedValue);
+        RangeQueryCountMinSketch wide = new RangeQueryCountMinSketch(m, k, minAcceptedValue, maxAcceptedValue);
+        assertTrue(narrow.counters() * 3 < wide.counters());
+
+        XorShiftN xorShiftN = new XorShiftN(1, rangeLog);
+        for (int i = 0; i < n; i++) narrow.add(minAcceptedValue + xorShiftN.nextInteger());
+        xorShiftN.setSeed(1);
+        for (int i = 0; i < n; i++) assertTrue(narrow.getCount(minAcceptedValue + xorShiftN.nextInteger()) >= 1);
+        assertEquals(n, narrow.getCount(minAcceptedValue, maxAcceptedValue));
+    }
+
+    @Test
+    void testMerge() {
+        RangeQueryCountMinSketch left = new RangeQueryCountMinSketch(m, k, 0, n - 1);
+        RangeQueryCountMinSketch right = new RangeQueryCountMinSketch(m, k, 0, n - 1);
+        for (int i = 0; i < n / 2; i++) left.add(i);
+        for (int i = n / 2; i < n; i++) right.add(i, 2);
+
+        left.merge(right);
+        assertEquals(n / 2 * 3, left.getCount());
+        for (int i = 0; i < n; i++) assertTrue(left.getCount(i) >= (i < n / 2 ? 1 : 2));
+        assertTrue(left.getCount(0, n / 2 - 1) >= n / 2);
+        assertTrue(left.getCount(n / 2, n - 1) >= n);
+    }
+
+    @Test
+    void testMergeDifferentLayout() {
+        RangeQueryCountMinSketch cms = new RangeQueryCountMinSketch(m, k, 0, n - 1);
+        assertThrows(IllegalArgumentException.class, () -> cms.merge(new RangeQueryCountMinSketch(m, k, 1, n)));
+        assertThrows(IllegalArgumentException.class, () -> cms.merge(new RangeQueryCountMinSketch(m, k + 1, 0, n - 1)));
+
+        RangeQueryCountMinSketch wide = new RangeQueryCountMinSketch(m, k, minAcceptedValue, maxAcceptedValue);
+        assertThrows(IllegalArgumentException.class, () -> wide.merge(new RangeQueryCountMinSketch(m / 2, k, minAcceptedValue, maxAcceptedValue)));
+    }
+
     @RepeatedTest(100)
     void testContainsExisting() {
         RangeQueryCountMinSketch cms = new RangeQueryCountMinSketch(m, k, minAcceptedValue, maxAcceptedValue);
@@ -0,0 +1,262 @@
+package membership;
+
+import utils.BitPackedArray;
+
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+
+// Quotient filter with rank-and-select metadata (RSQF): every block of 64 slots keeps occupieds and runends bitvectors
+// and the number of its first slots used by runs of previous blocks, so the end of any run is found with one rank and
+// one select. Runs never wrap, a few extra slots at the end take runs of the last quotients.
+public class RankSelectQuotientFilter<K> {
+    private static final int MAX_BITS = 40;
+    private static final int MAX_REMAINDER_BITS = 60;
+    private static final int HASH_BITS = 64;
+    private static final int DEFAULT_REMAINDER_BITS = 8;
+    private static final int BLOCK_BITS = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    private final long[] occupieds, runends;
+    private final long[] offsets; // number of the first slots of the block used by runs of previous blocks
+    private final BitPackedArray remainders;
+    private final ToLongFunction<? super K> hasher;
+    private final int bitsR;
+    private final long maskQ, maskR, slots;
+    private long size;
+
+    public RankSelectQuotientFilter(int bits) {
+        this(bits, DEFAULT_REMAINDER_BITS);
+    }
+
+    public RankSelectQuotientFilter(int bits, int remainderBits) {
+        this(bits, remainderBits, QuotientFilter.DEFAULT_HASHER);
+    }
+
+    // hasher must spread keys over all 64 bits, the lowest remainderBits of the hash are the remainder
+    public RankSelectQuotientFilter(int bits, int remainderBits, ToLongFunction<? super K> hasher) {
+        if (hasher == null) throw new IllegalArgumentException("Hasher must not be null");
+        if (bits < 0) throw new IllegalArgumentException("Bits must be positive");
+        if (bits > MAX_BITS) throw new IllegalArgumentException("Too many bits");
+        if (remainderBits <= 0 || remainderBits > MAX_REMAINDER_BITS)
+            throw new IllegalArgumentException("Remainder bits must be in [1, " + MAX_REMAINDER_BITS + "]");
+        if (bits + remainderBits > HASH_BITS)
+            throw new IllegalArgumentException("Quotient and remainder must fit into " + HASH_BITS + " bits");
+
+        long quotients = 1L << bits;
+        long extra = 10 * (long) Math.ceil(Math.sqrt(quotients)) + BLOCK_SIZE;
+        long blocks = (quotients + extra + BLOCK_SIZE - 1) >>> BLOCK_BITS;
+        if (blocks > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many bits");
+
+        this.hasher = hasher;
+        this.bitsR = remainderBits;
+        this.maskQ = quotients - 1;
+        this.maskR = (1L << remainderBits) - 1;
+        this.slots = blocks << BLOCK_BITS;
+        this.occupieds = new long[(int) blocks];
+        this.runends = new long[(int) blocks];
+        this.offsets = new long[(int) blocks];
+        this.remainders = new BitPackedArray(slots, remainderBits);
+    }
+
+    public boolean contains(K key) {
+        return containsHash(hasher.applyAsLong(key));
+    }
+
+    // primitive keys are hashed like boxed Longs by the hasher of the filter
+    public boolean contains(long key) {
+        return containsHash(QuotientFilter.hashLong(hasher, key));
+    }
+
+    public boolean containsHash(long hash) {
+        long fq = getQuotient(hash);
+        long fr = getRemainder(hash);
+        if (!isOccupied(fq)) return false;
+
+        // runs are sorted by remainder, so we can stop at the first greater one
+        long end = runEnd(fq);
+        for (long s = runStart(fq); s <= end; s++) {
+            long r = remainders.get(s);
+            if (r == fr) return true;
+            if (r > fr) return false;
+        }
+        return false;
+    }
+
+    public boolean add(K key) {
+        return addHash(hasher.applyAsLong(key));
+    }
+
+    public boolean add(long key) {
+        return addHash(QuotientFilter.hashLong(hasher, key));
+    }
+
+    public boolean addHash(long hash) {
+        long fq = getQuotient(hash);
+        long fr = getRemainder(hash);
+
+        // if canonical slot is empty, create new run in it
+        if (runEnd(fq) < fq) {
+            remainders.set(fq, fr);
+            setBit(occupieds, fq);
+            setBit(runends, fq);
+            size++;
+            return true;
+        }
+
+        long end = runEnd(fq), insert = end + 1;
+        boolean runExists = isOccupied(fq), newEnd = true;
+        if (runExists) {
+            // find the position of the remainder in the sorted run
+            for (long s = runStart(fq); s <= end; s++) {
+                long r = remainders.get(s);
+                if (r == fr) return false;
+                if (r > fr) {
+                    insert = s;
+                    newEnd = false;
+                    break;
+                }
+            }
+        }
+
+        long empty = findFirstEmptySlot(end + 1);
+        if (empty >= slots) throw new RuntimeException("RankSelectQuotientFilter is full");
+
+        // shift remainders and run ends in [insert, empty) by one slot
+        for (long s = empty; s > insert; s--) {
+            remainders.set(s, remainders.get(s - 1));
+            if (getBit(runends, s - 1)) setBit(runends, s);
+            else clearBit(runends, s);
+        }
+        remainders.set(insert, fr);
+        if (newEnd) {
+            // the new remainder ends the run, if the run already existed its previous end is not the end anymore
+            if (runExists) clearBit(runends, insert - 1);
+            setBit(runends, insert);
+        } else {
+            clearBit(runends, insert);
+        }
+        setBit(occupieds, fq);
+
+        // one more slot of every block up to the empty one is used by runs of previous blocks
+        for (long b = (fq >>> BLOCK_BITS) + 1; b <= empty >>> BLOCK_BITS; b++) offsets[(int) b]++;
+        size++;
+        return true;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long capacity() {
+        return maskQ + 1;
+    }
+
+    public int remainderBits() {
+        return bitsR;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(occupieds, 0);
+        Arrays.fill(runends, 0);
+        Arrays.fill(offsets, 0);
+        remainders.clear();
+        size = 0;
+    }
+
+    private boolean isOccupied(long q) {
+        return getBit(occupieds, q);
+    }
+
+    private long runStart(long q) {
+        return q == 0 ? 0 : Math.max(q, runEnd(q - 1) + 1);
+    }
+
+    private long runEnd(long x) {
+        return runEnd(occupieds, runends, offsets, x);
+    }
+
+    private long findFirstEmptySlot(long from) {
+        return findFirstEmptySlot(occupieds, runends, offsets, slots, from);
+    }
+
+    // metadata walks below are shared with CountingQuotientFilter, which has the same blocks of 64 slots
+    // end of the run of the last occupied quotient which is not greater than x,
+    // if the run ends before the block of x, any position before the block is returned
+    static long runEnd(long[] occupieds, long[] runends, long[] offsets, long x) {
+        int b = (int) (x >>> BLOCK_BITS);
+        long blockStart = (long) b << BLOCK_BITS;
+        int i = (int) (x & (BLOCK_SIZE - 1));
+        int rank = Long.bitCount(occupieds[b] & ((2L << i) - 1));
+        if (rank == 0) return blockStart + offsets[b] - 1;
+
+        // first rank run ends after the slots used by previous blocks belong to the quotients of this block up to x
+        long pos = blockStart + offsets[b];
+        int w = (int) (pos >>> BLOCK_BITS);
+        long word = runends[w] & (-1L << (pos & (BLOCK_SIZE - 1)));
+        rank--;
+        while (true) {
+            int count = Long.bitCount(word);
+            if (rank < count) return ((long) w << BLOCK_BITS) + select(word, rank);
+            rank -= count;
+            word = runends[++w];
+        }
+    }
+
+    static long findFirstEmptySlot(long[] occupieds, long[] runends, long[] offsets, long slots, long from) {
+        while (from < slots) {
+            long end = runEnd(occupieds, runends, offsets, from);
+            if (end < from) return from;
+            from = end + 1;
+        }
+        return slots;
+    }
+
+    // position of the set bit with the given 0-based rank
+    static int select(long word, int rank) {
+        int pos = 0, count = Long.bitCount(word & 0xFFFFFFFFL);
+        if (rank >= count) {
+            rank -= count;
+            word >>>= 32;
+            pos += 32;
+        }
+        count = Long.bitCount(word & 0xFFFFL);
+        if (rank >= count) {
+            rank -= count;
+            word >>>= 16;
+            pos += 16;
+        }
+        count = Long.bitCount(word & 0xFFL);
+        if (rank >= count) {
+            rank -= count;
+            word >>>= 8;
+            pos += 8;
+        }
+        for (; rank > 0; rank--) word &= word - 1;
+        return pos + Long.numberOfTrailingZeros(word);
+    }
+
+    static boolean getBit(long[] bits, long i) {
+        return (bits[(int) (i >>> BLOCK_BITS)] & 1L << i) != 0;
+    }
+
+    static void setBit(long[] bits, long i) {
+        bits[(int) (i >>> BLOCK_BITS)] |= 1L << i;
+    }
+
+    static void clearBit(long[] bits, long i) {
+        bits[(int) (i >>> BLOCK_BITS)] &= ~(1L << i);
+    }
+
+    // the lowest bitsR bits are the remainder, the next bits are the quotient
+    private long getQuotient(long hash) {
+        return hash >>> bitsR & maskQ;
+    }
+
+    private long getRemainder(long hash) {
+        return hash & maskR;
+    }
+}
@@ -0,0 +1,139 @@
+package membership;
+
+import org.junit.jupiter.api.Test;
+import prng.XorShift32;
+import prng.XorShift64;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RankSelectQuotientFilterTest {
+    private static final int numberOfTests = 1_000;
+    private static final int bitsForFilter = 12;
+    private static final int capacity = 1 << bitsForFilter;
+    private static final int numberOfElements = (int) (capacity * 0.95);
+    private static final double maxErrorRate = 0.01;
+
+    @Test
+    void testSelect() {
+        XorShift64 random = new XorShift64(1);
+        for (int t = 0; t < 10_000; t++) {
+            long word = random.nextLong();
+            long tmp = word;
+            for (int rank = 0; rank < Long.bitCount(word); rank++) {
+                assertEquals(Long.numberOfTrailingZeros(tmp), RankSelectQuotientFilter.select(word, rank));
+                tmp &= tmp - 1;
+            }
+        }
+    }
+
+    @Test
+    void testAddAlreadyExisting() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            RankSelectQuotientFilter<Integer> filter = new RankSelectQuotientFilter<>(bitsForFilter);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) assertFalse(filter.add(random.nextInteger()));
+        });
+    }
+
+    @Test
+    void testContainsAlreadyExisting() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            RankSelectQuotientFilter<Integer> filter = new RankSelectQuotientFilter<>(bitsForFilter);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) assertTrue(filter.contains(random.nextInteger()));
+        });
+    }
+
+    @Test
+    void testErrorRateForContainsNonExisting() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            RankSelectQuotientFilter<Integer> filter = new RankSelectQuotientFilter<>(bitsForFilter);
+            XorShift32 random = new XorShift32(t);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            int fails = 0;
+            for (int i = numberOfElements; i < numberOfElements * 2; i++)
+                if (filter.contains(random.nextInteger())) fails++;
+            assertTrue(fails < numberOfElements * maxErrorRate);
+        });
+    }
+
+    @Test
+    void testSize() {
+        IntStream.rangeClosed(1, numberOfTests).parallel().forEach(t -> {
+            RankSelectQuotientFilter<Integer> filter = new RankSelectQuotientFilter<>(bitsForFilter);
+            XorShift32 random = new XorShift32(t);
+            int counter = 0;
+            for (int i = 0; i < numberOfElements; i++) if (filter.add(random.nextInteger())) counter++;
+            assertEquals(counter, filter.size());
+            assertTrue(filter.size() >= numberOfElements - numberOfElements * maxErrorRate);
+        });
+    }
+
+    @Test
+    void testFull() {
+        RankSelectQuotientFilter<Integer> filter = new RankSelectQuotientFilter<>(bitsForFilter);
+        XorShift32 random = new XorShift32(1);
+        assertThrows(RuntimeException.class, () -> {
+            //noinspection InfiniteLoopStatement
+            while (true) filter.add(random.nextInteger());
+        });
+        assertTrue(filter.size() > capacity);
+    }
+
+    @Test
+    void testClear() {
+        RankSelectQuotientFilter<Integer> filter = new RankSelectQuotientFilter<>(bitsForFilter);
+        XorShift32 random = new XorShift32(1);
+        for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+        filter.clear();
+        assertTrue(filter.isEmpty());
+        random = new XorShift32(1);
+        for (int i = 0; i < numberOfElements; i++) assertFalse(filter.contains(random.nextInteger()));
+    }
+
+    @Test
+    void testRemainderBits() {
+        IntStream.of(1, 5, 16, 31, 33, 52).parallel().forEach(r -> {
+            RankSelectQuotientFilter<Integer> filter = new RankSelectQuotientFilter<>(bitsForFilter, r);
+            assertEquals(r, filter.remainderBits());
+            XorShift32 random = new XorShift32(r);
+            for (int i = 0; i < numberOfElements; i++) filter.add(random.nextInteger());
+            random = new XorShift32(r);
+            for (int i = 0; i < numberOfElements; i++) assertTrue(filter.contains(random.nextInteger()));
+        });
+    }
+
+    @Test
+    void testPrimitiveKeysUseCustomHasher() {
+        RankSelectQuotientFilter<Long> filter = new RankSelectQuotientFilter<>(10, 8, key -> key);
+        for (long key = 0; key < 500; key++) {
+            if (key % 2 == 0) assertTrue(filter.add(Long.valueOf(key)));
+            else assertTrue(filter.add(key));
+        }
+        for (long key = 0; key < 500; key++) {
+            assertTrue(filter.contains(key));
+            assertTrue(filter.contains(Long.valueOf(key)));
+        }
+        assertFalse(filter.contains(500L));
+    }
+
+    @Test
+    void testSequentialKeys() {
+        IntStream.rangeClosed(1, 100).parallel().forEach(t -> {
+            RankSelectQuotientFilter<Long> filter = new RankSelectQuotientFilter<>(bitsForFilter);
+            long from = (long) t * numberOfElements * 2;
+            for (long key = from; key < from + numberOfElements; key++) filter.add(key);
+            for (long key = from; key < from + numberOfElements; key++) assertTrue(filter.contains(Long.valueOf(key)));
+            int fails = 0;
+            for (long key = from + numberOfElements; key < from + numberOfElements * 2; key++)
+                if (filter.contains(key)) fails++;
+            assertTrue(fails < numberOfElements * maxErrorRate);
+        });
+    }
+}
@@ -0,0 +1,61 @@
+package membership;
+
+// Spectral Bloom filter with recurring minimum: counts are kept in a primary counting filter, and keys whose minimum
+// counter is not recurring, which are the ones likely overestimated by collisions, take the count of a smaller
+// secondary filter with independent hashes when it is smaller.
+// The secondary filter keeps the largest primary count seen by each of its counters (minimum increase), so it never
+// counts a key below its primary count at its last add and counts are never underestimated, even after removes.
+public class SpectralBloomFilter {
+    private static final int SECONDARY_SEED = 0x5BD1E995;
+    private final CountingBloomFilter primary, secondary;
+
+    // secondary filter is a half of the primary one
+    public SpectralBloomFilter(int size, int numberOfHashFunctions) {
+        this(size, Math.max(size / 2, numberOfHashFunctions), numberOfHashFunctions);
+    }
+
+    public SpectralBloomFilter(int size, int secondarySize, int numberOfHashFunctions) {
+        this.primary = new CountingBloomFilter(size, numberOfHashFunctions, false, 0);
+        this.secondary = new CountingBloomFilter(secondarySize, numberOfHashFunctions, true, SECONDARY_SEED);
+    }
+
+    public void add(String key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        long hash = primary.hash(key);
+        primary.addHash(hash, 1);
+        // secondary counters of the key are raised to its primary count, which is at least its real count
+        long secondaryHash = secondary.hash(key);
+        int raise = primary.countHash(hash) - secondary.countHash(secondaryHash);
+        if (raise > 0) secondary.addHash(secondaryHash, raise);
+    }
+
+    // returns false if the key is not in the filter
+    public boolean remove(String key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        // secondary counters are shared with other keys and are never decremented, the primary count bounds the result
+        return primary.removeHash(primary.hash(key));
+    }
+
+    public boolean contains(String key) {
+        return getCount(key) > 0;
+    }
+
+    public boolean containsAtLeastTime(String key, int times) {
+        if (times <= 0) throw new IllegalArgumentException("Times must be positive");
+        return getCount(key) >= times;
+    }
+
+    public int getCount(String key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        long hash = primary.hash(key);
+        int count = primary.countHash(hash);
+        if (count == 0 || primary.recurringMinimum(hash)) return count;
+        int secondaryCount = secondary.countHash(secondary.hash(key));
+        return secondaryCount > 0 ? Math.min(count, secondaryCount) : count;
+    }
+
+    public void clear() {
+        primary.clear();
+        secondary.clear();
+    }
+}
@@ -0,0 +1,103 @@
+package membership;
+
+import org.junit.jupiter.api.Test;
+import prng.XorShift64;
+import utils.RandomGenerator;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpectralBloomFilterTest {
+    private static final int m = 1 << 14;
+    private static final int k = 3;
+    private static final int distinct = 1 << 13;
+
+    private static String[] keys() {
+        String[] keys = new String[distinct];
+        RandomGenerator.setSeed(1);
+        for (int i = 0; i < distinct; i++) keys[i] = RandomGenerator.getRandomString(20);
+        return keys;
+    }
+
+    // key i comes about 1000 / (i + 1) times, keys are interleaved like in a stream
+    private static int count(int i) {
+        return Math.max(1000 / (i + 1), 1);
+    }
+
+    private static void fill(String[] keys, SpectralBloomFilter spectral, CountingBloomFilter plain) {
+        for (int round = 0; round < 1000; round++) {
+            for (int i = 0; i < distinct && round < count(i); i++) {
+                spectral.add(keys[i]);
+                plain.add(keys[i]);
+            }
+        }
+    }
+
+    @Test
+    void testAdd() {
+        SpectralBloomFilter sbf = new SpectralBloomFilter(16, 2);
+        sbf.add("test");
+        sbf.add("test");
+        assertTrue(sbf.contains("test"));
+        assertTrue(sbf.containsAtLeastTime("test", 2));
+        assertEquals(2, sbf.getCount("test"));
+        sbf.clear();
+        assertFalse(sbf.contains("test"));
+    }
+
+    @Test
+    void testRecurringMinimumOverestimatesLess() {
+        String[] keys = keys();
+        SpectralBloomFilter spectral = new SpectralBloomFilter(m, k);
+        CountingBloomFilter plain = new CountingBloomFilter(m, k);
+        fill(keys, spectral, plain);
+        long spectralError = 0, plainError = 0;
+        for (int i = 0; i < distinct; i++) {
+            assertTrue(spectral.getCount(keys[i]) >= count(i));
+            spectralError += spectral.getCount(keys[i]) - count(i);
+            plainError += plain.getCount(keys[i]) - count(i);
+        }
+        assertTrue(spectralError < plainError);
+    }
+
+    @Test
+    void testNeverUnderestimates() {
+        // keys come in a random order with zipf frequencies and the filter is under real load, about 15 adds per counter
+        int keysCount = 4096, adds = 60000;
+        double[] cumulative = new double[keysCount];
+        double sum = 0;
+        for (int i = 0; i < keysCount; i++) cumulative[i] = sum += 1.0 / (i + 1);
+        double total = sum;
+        IntStream.rangeClosed(1, 10).parallel().forEach(t -> {
+            XorShift64 random = new XorShift64(t);
+            String[] keys = new String[keysCount];
+            for (int i = 0; i < keysCount; i++) keys[i] = Long.toHexString(random.nextLong());
+            SpectralBloomFilter spectral = new SpectralBloomFilter(1 << 12, k);
+            int[] counts = new int[keysCount];
+            for (int j = 0; j < adds; j++) {
+                double u = (random.nextLong() >>> 11) * 0x1.0p-53 * total;
+                int low = 0, high = keysCount - 1;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (cumulative[mid] < u) low = mid + 1;
+                    else high = mid;
+                }
+                spectral.add(keys[low]);
+                counts[low]++;
+            }
+            for (int i = 0; i < keysCount; i++) assertTrue(spectral.getCount(keys[i]) >= counts[i]);
+        });
+    }
+
+    @Test
+    void testRemove() {
+        String[] keys = keys();
+        SpectralBloomFilter spectral = new SpectralBloomFilter(m, k);
+        fill(keys, spectral, new CountingBloomFilter(16, 1));
+        // remove every occurrence of the odd keys
+        for (int i = 1; i < distinct; i += 2) for (int j = 0; j < count(i); j++) assertTrue(spectral.remove(keys[i]));
+        for (int i = 0; i < distinct; i += 2) assertTrue(spectral.getCount(keys[i]) >= count(i));
+        assertFalse(spectral.remove("absent"));
+    }
+}
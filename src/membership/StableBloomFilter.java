@@ -0,0 +1,138 @@
+package membership;
+
+import hash.MurmurHash3;
+import prng.Xoshiro256Plus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static utils.IntegerUtils.nextPow2;
+
+// Stable Bloom filter for duplicate detection on endless streams: every add first decrements P consecutive cells from
+// a random position and then sets the k cells of the key to the maximum, so old keys fade out and the fraction of
+// zero cells, and with it the false-positive rate, converges to a constant however long the stream is.
+// False negatives are possible for keys which were seen long ago.
+// Cells of 1, 2, 4 or 8 bits are packed into longs like counters of PackedCountingBloomFilter, and cells of a key are
+// h1 + i * h2 with odd h2 like in CountingBloomFilter.
+public class StableBloomFilter {
+    private static final int MAX_CAPACITY = 1 << 30;
+    private final long[] words;
+    private final int mask, k, decrements;
+    private final int cellBits, cellShift; // cells per word is 2^cellShift
+    private final long maxValue;
+    private final long lanesLow, lanesHigh; // all but the top bits and the top bits of all lanes of a word
+    private final Xoshiro256Plus random;
+
+    public StableBloomFilter(int cells, int numberOfHashFunctions, int cellBits, double falsePositiveRate) {
+        this(cells, numberOfHashFunctions, cellBits, decrementsFor(cells, numberOfHashFunctions, cellBits, falsePositiveRate));
+    }
+
+    public StableBloomFilter(int cells, int numberOfHashFunctions, int cellBits, int decrements) {
+        this(cells, numberOfHashFunctions, cellBits, decrements, new Random().nextLong());
+    }
+
+    public StableBloomFilter(int cells, int numberOfHashFunctions, int cellBits, int decrements, long seed) {
+        if (cells > MAX_CAPACITY) throw new IllegalArgumentException("Size too large");
+        if (cells <= 0) throw new IllegalArgumentException("Size must be positive");
+        if (numberOfHashFunctions < 1) throw new IllegalArgumentException("Hash functions must be positive");
+        if (cellBits != 1 && cellBits != 2 && cellBits != 4 && cellBits != 8)
+            throw new IllegalArgumentException("Cells must have 1, 2, 4 or 8 bits");
+        if (decrements < 1) throw new IllegalArgumentException("Decrements must be positive");
+
+        int size = nextPow2(cells);
+        if (numberOfHashFunctions > size) throw new IllegalArgumentException("Too many hash functions for the size");
+        if (decrements > size) throw new IllegalArgumentException("Too many decrements for the size");
+        this.mask = size - 1;
+        this.k = numberOfHashFunctions;
+        this.decrements = decrements;
+        this.cellBits = cellBits;
+        this.cellShift = Integer.numberOfTrailingZeros(64 / cellBits);
+        this.maxValue = (1L << cellBits) - 1;
+        this.words = new long[Math.max(size >>> cellShift, 1)];
+        long ones = Long.divideUnsigned(-1L, maxValue); // lowest bit of every lane
+        this.lanesHigh = ones << (cellBits - 1);
+        this.lanesLow = ~lanesHigh;
+        // seed and ~seed are never both zero, so the state is never the zero one xoshiro rejects
+        this.random = new Xoshiro256Plus(new long[]{seed, seed ^ 0x9E3779B97F4A7C15L, ~seed, seed * 0xBF58476D1CE4E5B9L});
+    }
+
+    // decrements which keep the false-positive rate at the given value once the filter is stable:
+    // rate = (1 - (1 / (1 + 1 / (P * (1 / k - 1 / m))))^max)^k
+    static int decrementsFor(int cells, int k, int cellBits, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("False positive rate must be in (0, 1)");
+        if (cells <= 0 || k < 1) throw new IllegalArgumentException("Size and hash functions must be positive");
+        double m = nextPow2(cells), max = (1 << cellBits) - 1;
+        double zeros = Math.pow(1 - Math.pow(falsePositiveRate, 1.0 / k), 1.0 / max);
+        double p = 1 / ((1 / zeros - 1) * (1.0 / k - 1 / m));
+        return (int) Math.max(1, Math.min(Math.round(p), (long) m));
+    }
+
+    // returns false if the key looks like a duplicate of a recent one
+    public boolean add(String key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        boolean duplicate = true;
+        for (int i = 0; i < k && duplicate; i++) if (get(h1 + i * h2 & mask) == 0) duplicate = false;
+
+        decrement((int) (random.nextLong() >>> 32) & mask, decrements);
+        for (int i = 0; i < k; i++) setMax(h1 + i * h2 & mask);
+        return !duplicate;
+    }
+
+    public boolean contains(String key) {
+        if (key == null) throw new IllegalArgumentException("Key cannot be null");
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < k; i++) if (get(h1 + i * h2 & mask) == 0) return false;
+        return true;
+    }
+
+    // false-positive rate the filter converges to
+    public double stableFalsePositiveRate() {
+        double m = mask + 1, max = maxValue;
+        double zeros = Math.pow(1 / (1 + 1 / (decrements * (1.0 / k - 1 / m))), max);
+        return Math.pow(1 - zeros, k);
+    }
+
+    public int decrements() {
+        return decrements;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    int get(int cell) {
+        int shift = (cell & (1 << cellShift) - 1) * cellBits;
+        return (int) (words[cell >>> cellShift] >>> shift & maxValue);
+    }
+
+    private void setMax(int cell) {
+        words[cell >>> cellShift] |= maxValue << (cell & (1 << cellShift) - 1) * cellBits;
+    }
+
+    // decrements the non-zero cells of [from, from + count) modulo the size, a word at a time: the top bit of
+    // (x & low) + low | x is set in the lanes which are not zero, and they can't overflow into the next lane
+    void decrement(int from, int count) {
+        int perWord = 1 << cellShift;
+        while (count > 0) {
+            int cell = from & mask, offset = cell & (perWord - 1);
+            int n = Math.min(Math.min(count, perWord - offset), mask + 1 - cell);
+            long lanes = n == perWord ? -1L : ((1L << n * cellBits) - 1) << offset * cellBits;
+            int w = cell >>> cellShift;
+            long x = words[w];
+            long nonZero = ((x & lanesLow) + lanesLow | x) & lanesHigh & lanes;
+            words[w] = x - (nonZero >>> (cellBits - 1));
+            from = cell + n;
+            count -= n;
+        }
+    }
+
+    private static long hash(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return MurmurHash3.hash64xArray(bytes, 0, bytes.length, 0);
+    }
+}
@@ -0,0 +1,107 @@
+package membership;
+
+import org.junit.jupiter.api.Test;
+import prng.XorShift64;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static utils.RandomGenerator.getRandomStrings;
+
+class StableBloomFilterTest {
+    private static final int m = 1 << 16;
+    private static final int k = 3;
+    private static final int tests = 1 << 14;
+    private static final double rate = 0.02;
+
+    private static double falsePositiveRate(StableBloomFilter filter, long seed) {
+        int fails = 0;
+        for (String key : getRandomStrings(tests, 16, seed)) if (filter.contains(key)) fails++;
+        return (double) fails / tests;
+    }
+
+    @Test
+    void testAdd() {
+        StableBloomFilter sbf = new StableBloomFilter(64, 2, 2, 1, 1);
+        assertTrue(sbf.add("test"));
+        assertTrue(sbf.contains("test"));
+        assertFalse(sbf.add("test"));
+        sbf.clear();
+        assertFalse(sbf.contains("test"));
+    }
+
+    @Test
+    void testDecrement() {
+        for (int bits : new int[]{1, 2, 4, 8}) {
+            int size = 256, max = (1 << bits) - 1;
+            StableBloomFilter sbf = new StableBloomFilter(size, 1, bits, 1, 1);
+            int[] expected = new int[size];
+            XorShift64 random = new XorShift64(bits);
+            for (int round = 0; round < 1000; round++) {
+                String key = Long.toHexString(random.nextLong());
+                sbf.add(key);
+                // the only cell of the key is the one at max, the other one is from the decrement of add
+                for (int cell = 0; cell < size; cell++) expected[cell] = sbf.get(cell);
+                int from = (int) (random.nextLong() >>> 40), count = (int) (random.nextLong() >>> 32) % (2 * size);
+                sbf.decrement(from, Math.min(count, size));
+                for (int i = 0; i < Math.min(count, size); i++) {
+                    int cell = from + i & size - 1;
+                    if (expected[cell] > 0) expected[cell]--;
+                }
+                for (int cell = 0; cell < size; cell++) {
+                    assertEquals(expected[cell], sbf.get(cell));
+                    assertTrue(sbf.get(cell) <= max);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testRecentKeysFound() {
+        IntStream.rangeClosed(1, 20).parallel().forEach(t -> {
+            StableBloomFilter sbf = new StableBloomFilter(m, k, 2, rate);
+            String[] keys = getRandomStrings(m * 4, 16, t);
+            for (int i = 0; i < keys.length; i++) {
+                sbf.add(keys[i]);
+                // a key survives at least max adds, since every add decrements each cell at most once
+                if (i >= 3) assertTrue(sbf.contains(keys[i - 3]));
+            }
+        });
+    }
+
+    @Test
+    void testFalsePositiveRateIsBounded() {
+        for (int bits : new int[]{1, 2, 4}) {
+            StableBloomFilter sbf = new StableBloomFilter(m, k, bits, rate);
+            assertEquals(rate, sbf.stableFalsePositiveRate(), rate * 0.1);
+            String[] keys = getRandomStrings(m * 32, 16, bits);
+            double[] rates = new double[4];
+            for (int i = 0; i < keys.length; i++) {
+                sbf.add(keys[i]);
+                if ((i + 1) % (m * 8) == 0) rates[i / (m * 8)] = falsePositiveRate(sbf, -i);
+            }
+            // a plain Bloom filter of the same size would report everything by now
+            for (double r : rates) assertTrue(r < rate * 1.5, bits + " bits: " + r);
+            assertTrue(Math.abs(rates[3] - rates[1]) < rate * 0.3);
+        }
+    }
+
+    @Test
+    void testDecrementsFor() {
+        // more decrements are needed for a lower rate
+        assertTrue(StableBloomFilter.decrementsFor(m, k, 2, 0.01) > StableBloomFilter.decrementsFor(m, k, 2, 0.1));
+        StableBloomFilter sbf = new StableBloomFilter(m, k, 4, 0.05);
+        assertEquals(0.05, sbf.stableFalsePositiveRate(), 0.005);
+    }
+
+    @Test
+    void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new StableBloomFilter(0, 1, 2, 1));
+        assertThrows(IllegalArgumentException.class, () -> new StableBloomFilter(16, 0, 2, 1));
+        assertThrows(IllegalArgumentException.class, () -> new StableBloomFilter(16, 17, 2, 1));
+        assertThrows(IllegalArgumentException.class, () -> new StableBloomFilter(16, 2, 3, 1));
+        assertThrows(IllegalArgumentException.class, () -> new StableBloomFilter(16, 2, 2, 0));
+        assertThrows(IllegalArgumentException.class, () -> new StableBloomFilter(16, 2, 2, 17));
+        assertThrows(IllegalArgumentException.class, () -> new StableBloomFilter(16, 2, 2, 1.5));
+    }
+}
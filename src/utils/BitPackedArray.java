@@ -0,0 +1,87 @@
+package utils;
+
+import java.util.Arrays;
+
+// array of fixed-width unsigned values packed into pages of longs, so it can hold more than 2^31 values
+public class BitPackedArray {
+    private static final int PAGE_BITS = 24; // 2^24 longs, 128 MB per page
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final long MAX_SIZE = 1L << 48;
+
+    private final long[][] pages;
+    private final long[] words; // the only page with one more word, so a value is always in two words; or null
+    private final long size, mask;
+    private final int bits;
+
+    public BitPackedArray(long size, int bits) {
+        if (size < 0) throw new IllegalArgumentException("Size must be non-negative");
+        if (size > MAX_SIZE) throw new IllegalArgumentException("Size must be at most 2^48");
+        if (bits <= 0 || bits > 64) throw new IllegalArgumentException("Bits must be in [1, 64]");
+        this.size = size;
+        this.bits = bits;
+        this.mask = bits == 64 ? -1L : (1L << bits) - 1;
+
+        long words = (size * bits + 63) >>> 6;
+        if (words <= PAGE_SIZE) {
+            this.words = new long[(int) words + 1];
+            pages = new long[][]{this.words};
+            return;
+        }
+        this.words = null;
+        pages = new long[(int) ((words + PAGE_MASK) >>> PAGE_BITS)][];
+        for (int p = 0; p < pages.length; p++) pages[p] = new long[(int) Math.min(PAGE_SIZE, words - ((long) p << PAGE_BITS))];
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    // a single page is read and written without branches, the second word is shifted twice, so a shift of 64 is 0
+    public long get(long index) {
+        long bit = index * bits;
+        int shift = (int) (bit & 63);
+        if (words != null) {
+            int w = (int) (bit >>> 6);
+            return (words[w] >>> shift | words[w + 1] << 1 << (63 - shift)) & mask;
+        }
+        long word = bit >>> 6;
+        long value = word(word) >>> shift;
+        if (shift + bits > 64) value |= word(word + 1) << (64 - shift);
+        return value & mask;
+    }
+
+    public void set(long index, long value) {
+        long bit = index * bits;
+        int shift = (int) (bit & 63);
+        value &= mask;
+        if (words != null) {
+            int w = (int) (bit >>> 6);
+            words[w] = words[w] & ~(mask << shift) | value << shift;
+            words[w + 1] = words[w + 1] & ~(mask >>> 1 >>> (63 - shift)) | value >>> 1 >>> (63 - shift);
+            return;
+        }
+        long word = bit >>> 6;
+        setWord(word, word(word) & ~(mask << shift) | value << shift);
+        if (shift + bits > 64) {
+            int written = 64 - shift;
+            setWord(word + 1, word(word + 1) & ~(mask >>> written) | value >>> written);
+        }
+    }
+
+    public void clear() {
+        for (long[] page : pages) Arrays.fill(page, 0);
+    }
+
+    private long word(long word) {
+        return pages[(int) (word >>> PAGE_BITS)][(int) (word & PAGE_MASK)];
+    }
+
+    private void setWord(long word, long value) {
+        pages[(int) (word >>> PAGE_BITS)][(int) (word & PAGE_MASK)] = value;
+    }
+}
@@ -15,6 +15,25 @@ public class RandomGenerator {
         return new String(chars);
     }
 
+    // n strings from their own generator, so they are the same for a seed and can be made from several threads
+    public static String[] getRandomStrings(int n, int length, long seed) {
+        Random random = new Random(seed);
+        String[] strings = new String[n];
+        char[] chars = new char[length];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < length; j++) chars[j] = (char) ('a' + random.nextInt(26));
+            strings[i] = new String(chars);
+        }
+        return strings;
+    }
+
+    public static long[] getRandomLongs(int n, long seed) {
+        Random random = new Random(seed);
+        long[] longs = new long[n];
+        for (int i = 0; i < n; i++) longs[i] = random.nextLong();
+        return longs;
+    }
+
     public static char getRandomChar() {
         return (char) ('a' + random.nextInt(26));
     }